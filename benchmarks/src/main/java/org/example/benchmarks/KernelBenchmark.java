@@ -0,0 +1,93 @@
+package org.example.benchmarks;
+
+import org.example.model.HistogramData;
+import org.example.utils.ColorAdjustments;
+import org.example.utils.ImageUtils;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Пропускная способность ядер ImageUtils и ColorAdjustments.
+ * Счётчик {@code megapixels} в отчёте - это МП/с; аллокации - в колонках gc-профилировщика.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx12g")
+@State(Scope.Benchmark)
+public class KernelBenchmark {
+    @Param({"1", "10", "100"})
+    public int megapixels;
+
+    @Param({"INT_RGB", "INT_ARGB", "3BYTE_BGR", "BYTE_GRAY"})
+    public String pixelType;
+
+    private BufferedImage image;
+    private double imageMegapixels;
+    private final ColorAdjustments pointAdjustments = new ColorAdjustments(0.1f, 1.2f, 1f, 1.4);
+    private final ColorAdjustments fullAdjustments = new ColorAdjustments(0.1f, 1.2f, 1.3f, 1.4);
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Pixels {
+        public double megapixels;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        image = SyntheticImages.create(megapixels, pixelType);
+        imageMegapixels = (double) image.getWidth() * image.getHeight() / 1e6;
+    }
+
+    @Benchmark
+    public HistogramData calculateHistogram(Pixels pixels) {
+        pixels.megapixels += imageMegapixels;
+        return ImageUtils.calculateHistogram(image);
+    }
+
+    @Benchmark
+    public BufferedImage linearCorrection(Pixels pixels) {
+        pixels.megapixels += imageMegapixels;
+        return ImageUtils.linearCorrection(image);
+    }
+
+    @Benchmark
+    public BufferedImage gammaCorrection(Pixels pixels) {
+        pixels.megapixels += imageMegapixels;
+        return ImageUtils.gammaCorrection(image, 1.5);
+    }
+
+    @Benchmark
+    public BufferedImage convertToGrayscale(Pixels pixels) {
+        pixels.megapixels += imageMegapixels;
+        return ImageUtils.convertToGrayscale(image);
+    }
+
+    /** То, что считает AdjustmentsController.applyAdjustments при насыщенности 1. */
+    @Benchmark
+    public BufferedImage applyAdjustmentsPointOnly(Pixels pixels) {
+        pixels.megapixels += imageMegapixels;
+        return pointAdjustments.apply(image);
+    }
+
+    @Benchmark
+    public BufferedImage applyAdjustments(Pixels pixels) {
+        pixels.megapixels += imageMegapixels;
+        return fullAdjustments.apply(image);
+    }
+}
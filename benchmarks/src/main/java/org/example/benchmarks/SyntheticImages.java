@@ -0,0 +1,48 @@
+package org.example.benchmarks;
+
+import org.example.utils.PixelAccess;
+
+import java.awt.image.BufferedImage;
+import java.util.SplittableRandom;
+
+/** Детерминированные тестовые изображения: градиент с шумом, одинаковый от запуска к запуску. */
+final class SyntheticImages {
+    private SyntheticImages() {
+    }
+
+    static int imageType(String name) {
+        switch (name) {
+            case "INT_RGB":
+                return BufferedImage.TYPE_INT_RGB;
+            case "INT_ARGB":
+                return BufferedImage.TYPE_INT_ARGB;
+            case "3BYTE_BGR":
+                return BufferedImage.TYPE_3BYTE_BGR;
+            case "BYTE_GRAY":
+                return BufferedImage.TYPE_BYTE_GRAY;
+            default:
+                throw new IllegalArgumentException("Unknown pixel type: " + name);
+        }
+    }
+
+    /** Изображение 4:3 площадью примерно {@code megapixels} миллионов пикселей. */
+    static BufferedImage create(int megapixels, String pixelType) {
+        int height = (int) Math.round(Math.sqrt(megapixels * 1_000_000 * 3.0 / 4.0));
+        int width = megapixels * 1_000_000 / height;
+        BufferedImage image = new BufferedImage(width, height, imageType(pixelType));
+
+        SplittableRandom random = new SplittableRandom(42);
+        PixelAccess pixels = PixelAccess.of(image);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = (x * 200 / width + random.nextInt(40)) & 0xFF;
+                int g = (y * 200 / height + random.nextInt(40)) & 0xFF;
+                int b = ((x + y) * 100 / (width + height) + random.nextInt(80)) & 0xFF;
+                row[x] = 0xFF000000 | (r << 16) | (g << 8) | b;
+            }
+            pixels.writeRow(y, row);
+        }
+        return image;
+    }
+}
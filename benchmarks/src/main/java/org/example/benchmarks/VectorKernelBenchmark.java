@@ -0,0 +1,67 @@
+package org.example.benchmarks;
+
+import org.example.utils.ColorAdjustments;
+import org.example.utils.ImageUtils;
+import org.example.utils.PixelKernels;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Скалярные ядра {@link PixelKernels} против Vector API на тех же данных.
+ * Счётчик {@code megapixels} в отчёте - это МП/с.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "--add-modules", "jdk.incubator.vector"})
+@State(Scope.Benchmark)
+public class VectorKernelBenchmark {
+    @Param({"1", "10"})
+    public int megapixels;
+
+    @Param({"INT_RGB", "3BYTE_BGR"})
+    public String pixelType;
+
+    @Param({"false", "true"})
+    public boolean vector;
+
+    private BufferedImage image;
+    private double imageMegapixels;
+    private final ColorAdjustments adjustments = new ColorAdjustments(0.1f, 1.2f, 1.3f, 1.4);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        PixelKernels.setVectorEnabled(vector);
+        if (PixelKernels.get().isVectorized() != vector) {
+            throw new IllegalStateException("Vector API module is not available");
+        }
+        image = SyntheticImages.create(megapixels, pixelType);
+        imageMegapixels = (double) image.getWidth() * image.getHeight() / 1e6;
+    }
+
+    @Benchmark
+    public BufferedImage applyAdjustments(KernelBenchmark.Pixels pixels) {
+        pixels.megapixels += imageMegapixels;
+        return adjustments.apply(image);
+    }
+
+    @Benchmark
+    public BufferedImage convertToGrayscale(KernelBenchmark.Pixels pixels) {
+        pixels.megapixels += imageMegapixels;
+        return ImageUtils.convertToGrayscale(image);
+    }
+}
@@ -1,14 +1,19 @@
 package org.example;
 
+import org.example.batch.BatchConverter;
 import org.example.view.MainFrame;
 
 import javax.swing.SwingUtilities;
 
 public class ImageProcessorApp {
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            System.exit(BatchConverter.run(args));
+        }
+
         SwingUtilities.invokeLater(() -> {
             MainFrame frame = new MainFrame();
             frame.setVisible(true);
         });
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,314 @@
+package org.example.batch;
+
+import org.example.utils.ImageSaver;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * Пакетная обработка без GUI:
+ * {@code --batch <inputDir> <outputDir> --ops grayscale,linear,gamma=1.5}.
+ * Чтение, обработка и запись идут в отдельных потоках через ограниченные очереди;
+ * число изображений в памяти ограничено {@code --max-in-flight}.
+ * Если у нескольких файлов совпадает имя результата, к следующим добавляется {@code _2}, {@code _3}...
+ * Ошибка вроде нехватки памяти останавливает чтение новых файлов,
+ * уже прочитанные проходят до конца, и запуск завершается неудачей.
+ */
+public class BatchConverter {
+    private static final Job END = new Job(null, null);
+
+    private final File inputDir;
+    private final File outputDir;
+    private final List<UnaryOperator<BufferedImage>> operations;
+    private final String format;
+    private final int readers;
+    private final int workers;
+    private final int writers;
+    private final Semaphore inFlight;
+    private final BlockingQueue<Job> decoded;
+    private final BlockingQueue<Job> processed;
+
+    private final AtomicInteger converted = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong pixels = new AtomicLong();
+    // Первая ошибка уровня Error (например, OutOfMemoryError)
+    private final AtomicReference<Throwable> fatal = new AtomicReference<>();
+    // Файл результата для каждого входного; заполняется до запуска потоков
+    private final Map<File, File> targets = new HashMap<>();
+
+    private static final class Job {
+        final File file;
+        final BufferedImage image;
+
+        Job(File file, BufferedImage image) {
+            this.file = file;
+            this.image = image;
+        }
+    }
+
+    public BatchConverter(File inputDir, File outputDir, List<UnaryOperator<BufferedImage>> operations,
+                          String format, int readers, int workers, int writers, int maxInFlight) {
+        this.inputDir = inputDir;
+        this.outputDir = outputDir;
+        this.operations = operations;
+        this.format = format;
+        this.readers = readers;
+        this.workers = workers;
+        this.writers = writers;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.decoded = new ArrayBlockingQueue<>(maxInFlight);
+        this.processed = new ArrayBlockingQueue<>(maxInFlight);
+    }
+
+    public static int run(String[] args) {
+        if (args.length < 3) {
+            printUsage();
+            return 2;
+        }
+
+        File inputDir = new File(args[1]);
+        File outputDir = new File(args[2]);
+        String ops = "";
+        String format = null;
+        int threads = 2;
+        int maxInFlight = 4;
+
+        try {
+            for (int i = 3; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--ops":
+                        ops = args[++i];
+                        break;
+                    case "--format":
+                        format = args[++i].toLowerCase(Locale.ROOT);
+                        break;
+                    case "--threads":
+                        threads = Math.max(1, Integer.parseInt(args[++i]));
+                        break;
+                    case "--max-in-flight":
+                        maxInFlight = Math.max(1, Integer.parseInt(args[++i]));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + args[i]);
+                }
+            }
+
+            if (!inputDir.isDirectory()) {
+                throw new IllegalArgumentException("Not a directory: " + inputDir);
+            }
+            if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+                throw new IllegalArgumentException("Cannot create output directory: " + outputDir);
+            }
+
+            BatchConverter converter = new BatchConverter(inputDir, outputDir,
+                    BatchOperations.parse(ops), format, threads, threads, threads, maxInFlight);
+            return converter.convert() ? 0 : 1;
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println("Error: " + e.getMessage());
+            printUsage();
+            return 2;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Batch conversion interrupted");
+            return 1;
+        }
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: --batch <inputDir> <outputDir> --ops grayscale,linear,gamma=1.5"
+                + " [--format png|jpg|bmp] [--threads n] [--max-in-flight n]");
+        System.err.println("Operations: grayscale, linear, autolevels=<0-10>, equalize, clahe=<1-10>,"
+                + " gamma=<0.1-5.0>, brightness=<-100..100>, contrast=<-100..100>, saturation=<-100..100>");
+    }
+
+    /** Возвращает true, если все файлы обработаны без ошибок. */
+    public boolean convert() throws InterruptedException {
+        List<String> suffixes = Arrays.asList(ImageIO.getReaderFileSuffixes());
+        File[] listed = inputDir.listFiles(file -> file.isFile()
+                && suffixes.contains(extension(file.getName())));
+        List<File> files = listed != null ? new ArrayList<>(Arrays.asList(listed)) : new ArrayList<>();
+        files.sort(Comparator.comparing(File::getName));
+        assignTargets(files);
+        BlockingQueue<File> pending = new ArrayBlockingQueue<>(Math.max(1, files.size()));
+        pending.addAll(files);
+
+        long start = System.nanoTime();
+
+        List<Thread> readerThreads = start(readers, "batch-read", () -> readLoop(pending), () -> { });
+        List<Thread> workerThreads = start(workers, "batch-process", this::processLoop, () -> drain(decoded));
+        List<Thread> writerThreads = start(writers, "batch-write", this::writeLoop, () -> drain(processed));
+
+        join(readerThreads);
+        for (int i = 0; i < workers; i++) decoded.put(END);
+        join(workerThreads);
+        for (int i = 0; i < writers; i++) processed.put(END);
+        join(writerThreads);
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double megapixels = pixels.get() / 1e6;
+        System.out.printf(Locale.ROOT,
+                "Converted %d of %d images (%d failed) in %.2f s: %.2f images/s, %.2f MP/s%n",
+                converted.get(), files.size(), failed.get(), seconds,
+                converted.get() / Math.max(seconds, 1e-9), megapixels / Math.max(seconds, 1e-9));
+        if (fatal.get() != null) {
+            System.err.println("Batch conversion aborted: " + fatal.get());
+        }
+        return failed.get() == 0 && fatal.get() == null;
+    }
+
+    // Имена результатов без совпадений; сравнение без учёта регистра, как в файловых системах Windows и macOS
+    private void assignTargets(List<File> files) {
+        Set<String> used = new HashSet<>();
+        for (File file : files) {
+            String targetFormat = format != null ? format : outputFormat(file);
+            String base = baseName(file.getName());
+            String name = base + "." + targetFormat;
+            for (int n = 2; !used.add(name.toLowerCase(Locale.ROOT)); n++) {
+                name = base + "_" + n + "." + targetFormat;
+            }
+            targets.put(file, new File(outputDir, name));
+        }
+    }
+
+    private void readLoop(BlockingQueue<File> pending) throws InterruptedException {
+        File file;
+        while (fatal.get() == null && (file = pending.poll()) != null) {
+            inFlight.acquire();
+            boolean passed = false;
+            try {
+                BufferedImage image = ImageIO.read(file);
+                if (image == null) {
+                    throw new IOException("Unsupported image format");
+                }
+                decoded.put(new Job(file, image));
+                passed = true;
+            } catch (IOException | RuntimeException | Error e) {
+                fail(file, e);
+            } finally {
+                if (!passed) inFlight.release();
+            }
+        }
+    }
+
+    private void processLoop() throws InterruptedException {
+        Job job;
+        while ((job = decoded.take()) != END) {
+            boolean passed = false;
+            try {
+                BufferedImage image = job.image;
+                for (UnaryOperator<BufferedImage> operation : operations) {
+                    image = operation.apply(image);
+                }
+                processed.put(new Job(job.file, image));
+                passed = true;
+            } catch (RuntimeException | Error e) {
+                fail(job.file, e);
+            } finally {
+                if (!passed) inFlight.release();
+            }
+        }
+    }
+
+    private void writeLoop() throws InterruptedException {
+        Job job;
+        while ((job = processed.take()) != END) {
+            try {
+                File target = targets.get(job.file);
+                String targetFormat = extension(target.getName());
+                if (!ImageIO.write(ImageSaver.forEncoder(job.image, targetFormat), targetFormat, target)) {
+                    throw new IOException("Unsupported format: " + targetFormat);
+                }
+                pixels.addAndGet((long) job.image.getWidth() * job.image.getHeight());
+                converted.incrementAndGet();
+            } catch (IOException | RuntimeException | Error e) {
+                fail(job.file, e);
+            } finally {
+                inFlight.release();
+            }
+        }
+    }
+
+    private void fail(File file, Throwable e) {
+        System.err.println("Error converting " + file.getName() + ": " + e);
+        failed.incrementAndGet();
+        if (e instanceof Error) {
+            fatal.compareAndSet(null, e);
+        }
+    }
+
+    // Очередь потока, который завершился аварийно: задания снимаются до END,
+    // чтобы не встали предыдущие этапы и главный поток
+    private void drain(BlockingQueue<Job> queue) throws InterruptedException {
+        Job job;
+        while ((job = queue.take()) != END) {
+            failed.incrementAndGet();
+            inFlight.release();
+        }
+    }
+
+    private interface Stage {
+        void run() throws InterruptedException;
+    }
+
+    private List<Thread> start(int count, String name, Stage stage, Stage afterFailure) {
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    stage.run();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Throwable e) {
+                    fatal.compareAndSet(null, e);
+                    try {
+                        afterFailure.run();
+                    } catch (InterruptedException interrupted) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, name + "-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+        return threads;
+    }
+
+    private static void join(List<Thread> threads) throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private static String outputFormat(File file) {
+        String ext = extension(file.getName());
+        return Arrays.asList(ImageIO.getWriterFileSuffixes()).contains(ext) ? ext : "png";
+    }
+
+    private static String extension(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 ? name.substring(dot + 1).toLowerCase(Locale.ROOT) : "";
+    }
+
+    private static String baseName(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+}
@@ -0,0 +1,103 @@
+package org.example.batch;
+
+import org.example.operations.OperationChain;
+import org.example.operations.PixelOperation;
+import org.example.operations.PixelOperations;
+import org.example.utils.ColorAdjustments;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * Разбор списка операций вида {@code grayscale,linear,gamma=1.5,brightness=20}.
+ * Имена остальных операций - {@link PixelOperation#getId()} найденных операций.
+ * Значения brightness/contrast/saturation задаются как на ползунках (-100..100),
+ * подряд идущие такие операции сливаются в один шаг {@link ColorAdjustments}.
+ * Весь список выполняется одной {@link OperationChain}: соседние поканальные
+ * операции применяются одной таблицей.
+ */
+public final class BatchOperations {
+    private BatchOperations() {
+    }
+
+    public static List<UnaryOperator<BufferedImage>> parse(String spec) {
+        List<OperationChain.Step> steps = new ArrayList<>();
+        float brightness = 0;
+        float contrast = 1;
+        float saturation = 1;
+        boolean pendingAdjustments = false;
+
+        for (String token : spec.split(",")) {
+            String op = token.trim();
+            if (op.isEmpty()) continue;
+
+            String name = op;
+            String value = null;
+            int eq = op.indexOf('=');
+            if (eq >= 0) {
+                name = op.substring(0, eq).trim();
+                value = op.substring(eq + 1).trim();
+            }
+
+            switch (name) {
+                case "brightness":
+                    brightness = parseSlider(name, value) / 100f;
+                    pendingAdjustments = true;
+                    continue;
+                case "contrast":
+                    contrast = parseSlider(name, value) / 100f + 1f;
+                    pendingAdjustments = true;
+                    continue;
+                case "saturation":
+                    saturation = parseSlider(name, value) / 100f + 1f;
+                    pendingAdjustments = true;
+                    continue;
+                default:
+                    break;
+            }
+
+            if (pendingAdjustments) {
+                steps.add(OperationChain.Step.of(new ColorAdjustments(brightness, contrast, saturation, 1.0)));
+                brightness = 0;
+                contrast = 1;
+                saturation = 1;
+                pendingAdjustments = false;
+            }
+
+            PixelOperation operation = PixelOperations.find(name);
+            if (operation == null) {
+                throw new IllegalArgumentException("Unknown operation: " + name);
+            }
+            PixelOperation.Parameter parameter = operation.getParameter();
+            steps.add(parameter != null
+                    ? new OperationChain.Step(operation, parameter.clamp(parseNumber(name, value)))
+                    : new OperationChain.Step(operation));
+        }
+
+        if (pendingAdjustments) {
+            steps.add(OperationChain.Step.of(new ColorAdjustments(brightness, contrast, saturation, 1.0)));
+        }
+        if (steps.isEmpty()) {
+            return List.of();
+        }
+        OperationChain chain = new OperationChain(steps);
+        return List.of(chain::apply);
+    }
+
+    private static float parseSlider(String name, String value) {
+        return (float) Math.max(-100, Math.min(100, parseNumber(name, value)));
+    }
+
+    private static double parseNumber(String name, String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Operation " + name + " requires a value");
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+        }
+    }
+}
@@ -1,131 +1,204 @@
 package org.example.controller;
 
+import org.example.model.HistogramData;
 import org.example.model.ImageModel;
+import org.example.model.OperationGraph;
+import org.example.model.TiledImage;
+import org.example.operations.OperationChain;
+import org.example.utils.ColorAdjustments;
+import org.example.utils.ImageUtils;
 
+import javax.swing.SwingUtilities;
 import java.awt.image.BufferedImage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class AdjustmentsController {
+    // Размер уменьшенной копии для предпросмотра во время перетаскивания ползунка
+    private static final int PREVIEW_SIZE = 1280;
+
     private final ImageModel model;
     private float brightness = 0;
     private float contrast = 1;
     private float saturation = 1;
     private double gamma = 1.0;
 
+    private final ExecutorService renderer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "adjustments-renderer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicLong generation = new AtomicLong();
+    private BufferedImage previewSource;
+    private BufferedImage preview;
+    // Режим прокси: результат операций графа для уменьшенной копии
+    // и гистограмма того же результата в полном размере
+    private OperationGraph proxyGraph;
+    private BufferedImage proxySource;
+    private BufferedImage proxyInput;
+    private HistogramData proxyInputHistogram;
+
     public AdjustmentsController(ImageModel model) {
         this.model = model;
     }
 
     public void applyAdjustments() {
-        if (!model.hasImage() || model.getOriginalImage() == null) return;
-
-        BufferedImage result = deepCopy(model.getOriginalImage());
+        render(false);
+    }
 
-        if (gamma != 1.0) {
-            result = applyGamma(result, gamma);
+    /**
+     * Считает результат в фоновом потоке и публикует его в модели на EDT.
+     * Каждый новый запрос отменяет предыдущие: устаревшие задачи пропускаются
+     * до начала работы, а их результаты не публикуются.
+     */
+    private void render(boolean previewOnly) {
+        // Граф, исходное изображение и гистограмма - из одной версии модели
+        ImageModel.Snapshot snapshot = model.getSnapshot();
+        if (!snapshot.hasImage()) return;
+
+        long ticket = generation.incrementAndGet();
+        ColorAdjustments adjustments = new ColorAdjustments(brightness, contrast, saturation, gamma);
+        OperationGraph current = snapshot.getGraph();
+        OperationGraph graph = current.withAdjustments(adjustments);
+        if (!previewOnly && graph == current) {
+            // Значения не изменились: убираем предпросмотр
+            model.showCurrentState();
+            return;
         }
 
-        result = applyColorAdjustments(result, brightness, contrast, saturation);
+        BufferedImage original = snapshot.getOriginalImage();
+        HistogramData originalHistogram = snapshot.getOriginalHistogram();
+        TiledImage originalTiles = snapshot.getOriginalTiles();
+
+        renderer.execute(() -> {
+            if (generation.get() != ticket) return;
+
+            if (snapshot.isProxyMode()) {
+                BufferedImage input = proxyInputOf(graph, snapshot);
+                BufferedImage shown = previewOnly ? previewOf(input) : input;
+                BufferedImage result = adjustments.isIdentity() ? shown : adjustments.apply(shown);
+                HistogramData resultHistogram = adjustments.apply(proxyInputHistogram);
+                SwingUtilities.invokeLater(() -> {
+                    if (generation.get() != ticket) return;
+                    if (previewOnly) {
+                        model.setCurrentImage(result, resultHistogram);
+                    } else {
+                        model.applyEdit("Adjustments", graph, result, resultHistogram);
+                    }
+                });
+                return;
+            }
 
-        model.setCurrentImage(result);
-    }
+            if (!previewOnly && originalTiles != null) {
+                TiledImage tiles = graph.evaluate(originalTiles, true);
+                BufferedImage tilesPreview = tiles.downscaled(ImageModel.TILED_PREVIEW_SIZE, ImageModel.TILED_PREVIEW_SIZE);
+                SwingUtilities.invokeLater(() -> {
+                    if (generation.get() == ticket) {
+                        model.applyEdit("Adjustments", graph, tiles, tilesPreview);
+                    } else if (tiles != originalTiles) {
+                        tiles.close();
+                    }
+                });
+                return;
+            }
+
+            // Пересчитывается только коррекция: вход берётся из кэша графа
+            BufferedImage input = graph.evaluateOperations(original);
+            BufferedImage result = previewOnly
+                    ? adjustments.apply(previewOf(input))
+                    : graph.evaluate(original);
 
-    private BufferedImage deepCopy(BufferedImage source) {
-        BufferedImage copy = new BufferedImage(
-                source.getWidth(), source.getHeight(), source.getType());
-        source.copyData(copy.getRaster());
-        return copy;
+            // Для поканальной коррекции гистограмма выводится из исходной
+            HistogramData histogram = null;
+            if (!previewOnly && input == original) {
+                histogram = adjustments.apply(originalHistogram);
+            }
+            HistogramData resultHistogram = histogram;
+
+            SwingUtilities.invokeLater(() -> {
+                if (generation.get() != ticket) return;
+                if (previewOnly) {
+                    model.setCurrentImage(result, resultHistogram);
+                } else {
+                    model.applyEdit("Adjustments", graph, result, resultHistogram);
+                }
+            });
+        });
     }
 
-    private BufferedImage applyGamma(BufferedImage image, double gamma) {
-        int[] gammaLUT = new int[256];
-        for (int i = 0; i < 256; i++) {
-            gammaLUT[i] = (int) (255 * Math.pow(i / 255.0, 1.0 / gamma));
+    // Вызывается только из потока renderer. Статистика для операций - по полному изображению
+    private BufferedImage proxyInputOf(OperationGraph graph, ImageModel.Snapshot snapshot) {
+        BufferedImage source = snapshot.getEditSource();
+        if (source != proxySource || !graph.hasSameOperations(proxyGraph)) {
+            OperationChain.Result result = graph.toChain(false).apply(source,
+                    snapshot.getFullOriginal(), snapshot::getFullHistogram);
+            proxyGraph = graph;
+            proxySource = source;
+            proxyInput = result.getImage();
+            proxyInputHistogram = result.getHistogram();
         }
+        return proxyInput;
+    }
 
-        BufferedImage result = new BufferedImage(
-                image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
-
-        for (int y = 0; y < image.getHeight(); y++) {
-            for (int x = 0; x < image.getWidth(); x++) {
-                int rgb = image.getRGB(x, y);
-                int r = gammaLUT[(rgb >> 16) & 0xFF];
-                int g = gammaLUT[(rgb >> 8) & 0xFF];
-                int b = gammaLUT[rgb & 0xFF];
-                result.setRGB(x, y, (r << 16) | (g << 8) | b);
-            }
+    // Вызывается только из потока renderer
+    private BufferedImage previewOf(BufferedImage input) {
+        if (previewSource != input) {
+            preview = ImageUtils.downscale(input, PREVIEW_SIZE, PREVIEW_SIZE);
+            previewSource = input;
         }
+        return preview;
+    }
 
-        return result;
-    }
-
-    private BufferedImage applyColorAdjustments(BufferedImage image,
-                                                float brightness,
-                                                float contrast,
-                                                float saturation) {
-        BufferedImage result = new BufferedImage(
-                image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
-
-        float brightnessFactor = brightness * 255;
-        float contrastFactor = contrast;
-        float contrastOffset = 128 * (1 - contrast);
-
-        for (int y = 0; y < image.getHeight(); y++) {
-            for (int x = 0; x < image.getWidth(); x++) {
-                int rgb = image.getRGB(x, y);
-                int r = (rgb >> 16) & 0xFF;
-                int g = (rgb >> 8) & 0xFF;
-                int b = rgb & 0xFF;
-
-                // Яркость
-                r = (int) (r + brightnessFactor);
-                g = (int) (g + brightnessFactor);
-                b = (int) (b + brightnessFactor);
-
-                // Контраст
-                r = (int) (r * contrastFactor + contrastOffset);
-                g = (int) (g * contrastFactor + contrastOffset);
-                b = (int) (b * contrastFactor + contrastOffset);
-
-                // Насыщенность
-                float gray = (r + g + b) / 3f;
-                r = (int) (gray + saturation * (r - gray));
-                g = (int) (gray + saturation * (g - gray));
-                b = (int) (gray + saturation * (b - gray));
-
-                // Ограничение значений
-                r = clamp(r);
-                g = clamp(g);
-                b = clamp(b);
-
-                result.setRGB(x, y, (r << 16) | (g << 8) | b);
-            }
-        }
+    public void setBrightness(float value) {
+        setBrightness(value, false);
+    }
+
+    public void setContrast(float value) {
+        setContrast(value, false);
+    }
 
-        return result;
+    public void setSaturation(float value) {
+        setSaturation(value, false);
     }
 
-    private int clamp(int value) {
-        return Math.max(0, Math.min(255, value));
+    public void setGamma(double gamma) {
+        setGamma(gamma, false);
     }
 
-    public void setBrightness(float value) {
+    /** {@code adjusting == true}: ползунок ещё двигается, считается только предпросмотр. */
+    public void setBrightness(float value, boolean adjusting) {
         this.brightness = value / 100f;
-        applyAdjustments();
+        render(adjusting);
     }
 
-    public void setContrast(float value) {
+    public void setContrast(float value, boolean adjusting) {
         this.contrast = value / 100f + 1f;
-        applyAdjustments();
+        render(adjusting);
     }
 
-    public void setSaturation(float value) {
+    public void setSaturation(float value, boolean adjusting) {
         this.saturation = value / 100f + 1f;
-        applyAdjustments();
+        render(adjusting);
     }
 
-    public void setGamma(double gamma) {
+    public void setGamma(double gamma, boolean adjusting) {
         this.gamma = gamma;
-        applyAdjustments();
+        render(adjusting);
+    }
+
+    /** Отменяет ещё не опубликованный результат, например перед отменой правки. */
+    public void cancelPending() {
+        generation.incrementAndGet();
+    }
+
+    /** Берёт значения коррекции из модели, например после отмены правки. */
+    public void syncWithModel() {
+        ColorAdjustments adjustments = model.getGraph().getAdjustments();
+        this.brightness = adjustments.getBrightness();
+        this.contrast = adjustments.getContrast();
+        this.saturation = adjustments.getSaturation();
+        this.gamma = adjustments.getGamma();
     }
 
     public void resetAllAdjustments() {
@@ -133,6 +206,7 @@ public class AdjustmentsController {
         this.contrast = 1;
         this.saturation = 1;
         this.gamma = 1.0;
+        generation.incrementAndGet();
         model.resetToOriginal();
     }
 }
\ No newline at end of file
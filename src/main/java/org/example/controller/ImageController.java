@@ -1,9 +1,16 @@
 package org.example.controller;
 
+import org.example.model.HistogramData;
 import org.example.model.ImageModel;
-import org.example.utils.ImageUtils;
+import org.example.model.OperationGraph;
+import org.example.model.TiledImage;
+import org.example.operations.OperationChain;
+import org.example.operations.PixelOperation;
+import org.example.utils.TileExecutor;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.util.List;
 import javax.swing.*;
 
 
@@ -15,52 +22,225 @@ public class ImageController {
         this.model = model;
     }
 
-    public void convertToGrayscale() {
-        if (model.hasImage()) {
-            BufferedImage grayImage = ImageUtils.convertToGrayscale(model.getCurrentImage());
-            model.setCurrentImage(grayImage);
-        }
-    }
-
-    public void applyLinearCorrection() {
+    /**
+     * Шаг для операции панели инструментов: значение параметра, если он есть,
+     * спрашивается у пользователя. null - пользователь отменил ввод или
+     * изображение не загружено. Вызывать из EDT.
+     */
+    public OperationChain.Step askStep(PixelOperation operation) {
         if (!model.hasImage() || model.getCurrentImage() == null) {
             System.err.println("No image loaded!");
-            return;
+            return null;
         }
 
+        PixelOperation.Parameter parameter = operation.getParameter();
+        if (parameter == null) {
+            return new OperationChain.Step(operation);
+        }
+        String input = JOptionPane.showInputDialog(parameter.getPrompt(),
+                String.valueOf(parameter.getDefaultValue()));
+        if (input == null) return null;
         try {
-            BufferedImage result = ImageUtils.linearCorrection(model.getCurrentImage());
-            if (result == null) {
-                System.err.println("Linear correction returned null!");
+            return new OperationChain.Step(operation, parameter.clamp(Double.parseDouble(input)));
+        } catch (NumberFormatException ex) {
+            JOptionPane.showMessageDialog(null,
+                    "Invalid " + parameter.getName() + " value",
+                    "Error",
+                    JOptionPane.ERROR_MESSAGE);
+            return null;
+        }
+    }
+
+    /** Применяет операцию сразу, в вызывающем потоке (EDT). */
+    public void apply(OperationChain.Step step) {
+        PendingEdit edit = begin(step);
+        edit.run(null);
+        edit.publish();
+    }
+
+    /**
+     * Правка поверх текущего состояния модели; считается в фоне через
+     * {@link PendingEdit#run}, передаётся модели через {@link PendingEdit#publish}.
+     * В режиме прокси считается только уменьшенная копия. Вызывать из EDT.
+     */
+    public PendingEdit begin(OperationChain.Step step) {
+        return new PendingEdit(step);
+    }
+
+    /**
+     * Применение текущего графа к полному изображению после правок
+     * в режиме прокси; публикуется без новой записи в истории. Вызывать из EDT.
+     */
+    public PendingEdit beginRender() {
+        return new PendingEdit(null);
+    }
+
+    /**
+     * Правка, которая считается вне EDT. Состояние модели, от которого она
+     * строится, запоминается при создании; если к публикации модель уже
+     * изменилась (открыто другое изображение, отмена, ползунки), результат
+     * отбрасывается, а правку можно пересчитать поверх нового состояния
+     * через {@link #rebase()}.
+     */
+    public final class PendingEdit {
+        // null - полноразмерный расчёт текущего графа
+        private final OperationChain.Step step;
+        private final ImageModel.Snapshot snapshot;
+        private final OperationGraph base;
+        private final BufferedImage original;
+        private final TiledImage originalTiles;
+
+        private volatile OperationGraph graph;
+        private volatile BufferedImage image;
+        private volatile HistogramData resultHistogram;
+        private volatile TiledImage tiles;
+
+        private PendingEdit(OperationChain.Step step) {
+            this.step = step;
+            this.snapshot = model.getSnapshot();
+            this.base = snapshot.getGraph();
+            this.original = snapshot.getOriginalImage();
+            this.originalTiles = snapshot.getOriginalTiles();
+        }
+
+        public String getName() {
+            return step != null ? step.getName() : "Render";
+        }
+
+        private boolean proxy() {
+            return step != null && snapshot.isProxyMode();
+        }
+
+        /** Примерный объём работы в пикселях, для индикатора хода. */
+        public long getExpectedPixels() {
+            OperationGraph next = step != null ? base.withOperation(step) : base;
+            RenderedImage full = snapshot.getFullOriginal();
+            long pixels = (long) full.getWidth() * full.getHeight();
+            if (proxy()) {
+                return Math.min(pixels, (long) ImageModel.PROXY_SIZE * ImageModel.PROXY_SIZE)
+                        * next.toChain(true).estimatePasses(false);
+            }
+            if (originalTiles != null) {
+                return pixels * next.toChain(true).estimatePasses(true);
+            }
+            if (step == null) {
+                return pixels * next.toChain(true).estimatePasses(false);
+            }
+            int passes = new OperationChain(List.of(step)).estimatePasses(false)
+                    + (base.getAdjustments().isIdentity() ? 0 : 1);
+            return pixels * passes;
+        }
+
+        /**
+         * Считает результат; можно вызывать из любого потока.
+         *
+         * @param progress ход по полосам и тайлам, может быть null; отмена
+         *                 прерывает расчёт {@link java.util.concurrent.CancellationException}
+         */
+        public void run(TileExecutor.Progress progress) {
+            if (progress == null) {
+                compute();
                 return;
             }
-            model.setCurrentImage(result);
-        } catch (Exception e) {
-            System.err.println("Error in linear correction: " + e.getMessage());
-            e.printStackTrace();
+            TileExecutor.track(progress, () -> {
+                compute();
+                return null;
+            });
         }
-    }
 
-    public void applyNonlinearCorrection() {
-        if (!model.hasImage()) return;
+        private void compute() {
+            OperationGraph next = step != null ? base.withOperation(step) : base;
+            if (proxy()) {
+                // Вся цепочка по уменьшенной копии, статистика - по полному изображению
+                OperationChain.Result result = next.toChain(true).apply(snapshot.getEditSource(),
+                        snapshot.getFullOriginal(), snapshot::getFullHistogram);
+                image = result.getImage();
+                resultHistogram = result.getHistogram();
+                graph = next;
+                return;
+            }
 
-        String input = JOptionPane.showInputDialog(
-                "Enter gamma value (0.1-5.0, 1.0=no change):",
-                "1.5");
+            if (originalTiles != null) {
+                tiles = next.evaluate(originalTiles, true);
+                image = tiles.downscaled(ImageModel.TILED_PREVIEW_SIZE, ImageModel.TILED_PREVIEW_SIZE);
+                // Запись тайлов на диск - здесь, а не при добавлении в историю на EDT
+                tiles.flush();
+                graph = next;
+                return;
+            }
 
-        try {
-            double gamma = Double.parseDouble(input);
-            gamma = Math.max(0.1, Math.min(5.0, gamma));
+            if (step == null) {
+                OperationChain.Result result = next.toChain(true).apply(original, snapshot.getFullHistogram());
+                image = result.getImage();
+                resultHistogram = result.getHistogram();
+                graph = next;
+                return;
+            }
 
-            BufferedImage result = ImageUtils.gammaCorrection(
-                    model.getCurrentImage(),
-                    gamma);
-            model.setCurrentImage(result);
-        } catch (NumberFormatException ex) {
-            JOptionPane.showMessageDialog(null,
-                    "Invalid gamma value",
-                    "Error",
-                    JOptionPane.ERROR_MESSAGE);
+            // Вход операции берётся из кэша графа, его гистограмма - из модели, если известна
+            BufferedImage input = base.evaluateOperations(original);
+            HistogramData inputHistogram = input == original ? snapshot.getOriginalHistogram()
+                    : input == snapshot.getCurrentImage() ? snapshot.getCurrentHistogram() : null;
+            OperationChain.Result result = new OperationChain(List.of(step)).apply(input, inputHistogram);
+            graph = base.withOperation(step, result.getImage());
+            image = graph.evaluate(original);
+            resultHistogram = graph.getAdjustments().apply(result.getHistogram());
+        }
+
+        /**
+         * Передаёт посчитанный результат модели. Вызывать из EDT.
+         *
+         * @return false, если модель успела измениться и результат отброшен
+         */
+        public boolean publish() {
+            if (graph == null) return false;
+            ImageModel.Snapshot current = model.getSnapshot();
+            if (current.getGraph() != base || current.getOriginalImage() != original) {
+                discard();
+                return false;
+            }
+            if (step == null) {
+                boolean applied = tiles != null
+                        ? model.applyRender(graph, tiles, image)
+                        : model.applyRender(graph, image, resultHistogram);
+                if (!applied) {
+                    discard();
+                    return false;
+                }
+            } else if (tiles != null) {
+                model.applyEdit(step.getName(), graph, tiles, image);
+            } else {
+                model.applyEdit(step.getName(), graph, image, resultHistogram);
+            }
+            graph = null;
+            return true;
+        }
+
+        /**
+         * Та же правка поверх текущего состояния модели - после того, как
+         * {@link #publish()} отбросил результат. null, если пересчитывать
+         * нечего: открыто другое изображение или полноразмерный расчёт
+         * больше не нужен. Вызывать из EDT.
+         */
+        public PendingEdit rebase() {
+            ImageModel.Snapshot current = model.getSnapshot();
+            if (current.getOriginalImage() != original || current.getOriginalTiles() != originalTiles) {
+                return null;
+            }
+            if (step == null && !current.isRenderPending()) {
+                return null;
+            }
+            return new PendingEdit(step);
+        }
+
+        /** Освобождает результат, который не будет опубликован. */
+        public synchronized void discard() {
+            // Пустой граф возвращает сами исходные тайлы
+            if (tiles != null && tiles != originalTiles) {
+                tiles.close();
+            }
+            tiles = null;
+            graph = null;
         }
     }
-}
\ No newline at end of file
+}
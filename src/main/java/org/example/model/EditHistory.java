@@ -0,0 +1,509 @@
+package org.example.model;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * История правок для отмены и повтора.
+ * Каждая запись хранит граф операций, по которому её состояние пересчитывается
+ * из исходного изображения, поэтому хранить все промежуточные изображения
+ * не нужно. Пока укладываемся в бюджет памяти, последние состояния держатся
+ * целиком (отмена мгновенная); при превышении старые состояния выгружаются:
+ * каждое {@value #CHECKPOINT_INTERVAL}-е сохраняется на диск как сжатая разница
+ * по тайлам с предыдущим, остальные пересчитываются по графу - от ближайшего
+ * доступного состояния, если граф его продолжает, иначе от исходного.
+ * Бюджет задаётся свойством {@code imageconverter.historyBudget} (в байтах).
+ * <p>
+ * Место на диске под выгруженные состояния и тайлы тайловых состояний
+ * ограничено свойством {@code imageconverter.historyDiskBudget} (в байтах,
+ * по умолчанию четверть свободного места во временном каталоге); при
+ * превышении самые старые правки удаляются из истории.
+ */
+public class EditHistory {
+    private static final int CHECKPOINT_INTERVAL = 4;
+    private static final int TILE_SIZE = 256;
+
+    private final long memoryBudget;
+    private final long diskBudget;
+    private final List<Entry> entries = new ArrayList<>();
+    private int position = -1;
+
+    static final class Entry {
+        final String name;
+        // Пересчитывает состояние записи; null у исходного и тайловых состояний
+        final Supplier<BufferedImage> recompute;
+        final OperationGraph graph;
+        final TiledImage tiles;
+        HistogramData histogram;
+        BufferedImage image;
+        // Формат вытесненного на диск изображения
+        ColorModel colorModel;
+        SampleModel sampleModel;
+        Path spillFile;
+        long spillBytes;
+        // Состояние, с которым сравнивались тайлы при записи; null - записано целиком
+        Entry deltaBase;
+
+        Entry(String name, Supplier<BufferedImage> recompute, OperationGraph graph,
+              BufferedImage image, TiledImage tiles, HistogramData histogram) {
+            this.name = name;
+            this.recompute = recompute;
+            this.graph = graph;
+            this.image = image;
+            this.tiles = tiles;
+            this.histogram = histogram;
+        }
+    }
+
+    /** Состояние после отмены или повтора. */
+    public static final class State {
+        private final BufferedImage image;
+        private final TiledImage tiles;
+        private final HistogramData histogram;
+        private final OperationGraph graph;
+
+        State(BufferedImage image, TiledImage tiles, HistogramData histogram, OperationGraph graph) {
+            this.image = image;
+            this.tiles = tiles;
+            this.histogram = histogram;
+            this.graph = graph;
+        }
+
+        public BufferedImage getImage() { return image; }
+        public TiledImage getTiles() { return tiles; }
+        public HistogramData getHistogram() { return histogram; }
+        public OperationGraph getGraph() { return graph; }
+    }
+
+    public EditHistory() {
+        this(Long.getLong("imageconverter.historyBudget", Runtime.getRuntime().maxMemory() / 4),
+                Long.getLong("imageconverter.historyDiskBudget",
+                        new File(System.getProperty("java.io.tmpdir")).getUsableSpace() / 4));
+    }
+
+    public EditHistory(long memoryBudget) {
+        this(memoryBudget, Long.MAX_VALUE);
+    }
+
+    public EditHistory(long memoryBudget, long diskBudget) {
+        this.memoryBudget = memoryBudget;
+        this.diskBudget = diskBudget;
+    }
+
+    /** Начинает историю заново с исходного изображения. */
+    public void reset(BufferedImage original, TiledImage originalTiles) {
+        Set<TiledImage> tiles = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Entry entry : entries) {
+            if (entry.tiles != null) tiles.add(entry.tiles);
+            deleteSpill(entry);
+        }
+        for (TiledImage image : tiles) {
+            if (image != originalTiles) image.close();
+        }
+        entries.clear();
+        entries.add(new Entry("Open", null, new OperationGraph(), original, originalTiles, null));
+        position = 0;
+    }
+
+    /**
+     * Добавляет новое состояние; всё, что можно было повторить, отбрасывается.
+     * Для тайловых изображений {@code tiles} хранит полноразмерный результат,
+     * {@code image} - его экранную копию.
+     */
+    public void push(String name, Supplier<BufferedImage> recompute, OperationGraph graph,
+                     BufferedImage image, TiledImage tiles, HistogramData histogram) {
+        if (position < 0) return;
+        truncateRedo();
+        if (tiles != null) {
+            tiles.flush();
+        }
+        entries.add(new Entry(name, recompute, graph, image, tiles, histogram));
+        position++;
+        enforceBudget();
+    }
+
+    /**
+     * Заменяет изображение текущего состояния тем же результатом в полном
+     * размере, например после правки по уменьшенной копии; граф не меняется.
+     */
+    public void replaceCurrent(BufferedImage image, TiledImage tiles, HistogramData histogram) {
+        if (position < 0) return;
+        Entry previous = entries.get(position);
+        entries.set(position, new Entry(previous.name, previous.recompute, previous.graph, image, tiles, histogram));
+        if (previous.tiles != null && previous.tiles != tiles && !isShared(previous)) {
+            previous.tiles.close();
+        }
+        deleteSpill(previous);
+        // Записанные на диск как разница с прежним изображением
+        dropDeltasOn(previous);
+        enforceBudget();
+    }
+
+    /** Гистограмма текущего состояния стала известна позже, чем оно было добавлено. */
+    public void setHistogram(BufferedImage image, HistogramData histogram) {
+        if (position >= 0 && entries.get(position).image == image) {
+            entries.get(position).histogram = histogram;
+        }
+    }
+
+    public boolean canUndo() {
+        return position > 0;
+    }
+
+    public boolean canRedo() {
+        return position >= 0 && position < entries.size() - 1;
+    }
+
+    public String getUndoName() {
+        return canUndo() ? entries.get(position).name : null;
+    }
+
+    public String getRedoName() {
+        return canRedo() ? entries.get(position + 1).name : null;
+    }
+
+    public State undo() {
+        if (!canUndo()) return null;
+        position--;
+        return restoreCurrent();
+    }
+
+    public State redo() {
+        if (!canRedo()) return null;
+        position++;
+        return restoreCurrent();
+    }
+
+    /** Текущее состояние, например чтобы вернуть его на экран после предпросмотра. */
+    public State current() {
+        return position >= 0 ? restoreCurrent() : null;
+    }
+
+    private State restoreCurrent() {
+        Entry entry = entries.get(position);
+        BufferedImage image = stateAt(position);
+        entry.image = image;
+        enforceBudget();
+        return new State(image, entry.tiles, entry.histogram, entry.graph);
+    }
+
+    /** Восстанавливает состояние: из памяти, по тайлам, с диска или пересчётом графа. */
+    private BufferedImage stateAt(int index) {
+        Entry entry = entries.get(index);
+        if (entry.image != null) {
+            return entry.image;
+        }
+        if (entry.tiles != null) {
+            return entry.tiles.downscaled(ImageModel.TILED_PREVIEW_SIZE, ImageModel.TILED_PREVIEW_SIZE);
+        }
+        if (entry.spillFile != null) {
+            return readDelta(index);
+        }
+        return recompute(index);
+    }
+
+    /**
+     * Пересчитывает состояние от ближайшего доступного предыдущего (в памяти
+     * или на диске), если граф записи его продолжает; иначе - от исходного.
+     */
+    private BufferedImage recompute(int index) {
+        Entry entry = entries.get(index);
+        BufferedImage original = entries.get(0).image;
+        for (int i = index - 1; i > 0; i--) {
+            Entry base = entries.get(i);
+            if (base.tiles != null || (base.image == null && base.spillFile == null)
+                    || !entry.graph.continues(base.graph)) {
+                continue;
+            }
+            BufferedImage state = stateAt(i);
+            // Результат правки по уменьшенной копии, так и не заменённый полноразмерным
+            if (original == null || state.getWidth() != original.getWidth()
+                    || state.getHeight() != original.getHeight()) {
+                continue;
+            }
+            return entry.graph.evaluateFrom(base.graph, state);
+        }
+        return entry.recompute.get();
+    }
+
+    private void truncateRedo() {
+        while (entries.size() > position + 1) {
+            release(entries.remove(entries.size() - 1));
+        }
+    }
+
+    private void release(Entry entry) {
+        if (entry.tiles != null && !isShared(entry)) {
+            entry.tiles.close();
+        }
+        deleteSpill(entry);
+        dropDeltasOn(entry);
+    }
+
+    // Разница с изменённым или удалённым состоянием больше не восстановима:
+    // такие записи пересчитываются по графу
+    private void dropDeltasOn(Entry base) {
+        for (Entry entry : entries) {
+            if (entry.deltaBase == base) {
+                deleteSpill(entry);
+            }
+        }
+    }
+
+    // Одни и те же тайлы могут быть у нескольких записей (например, исходные после сброса)
+    private boolean isShared(Entry entry) {
+        for (Entry other : entries) {
+            if (other != entry && other.tiles == entry.tiles) return true;
+        }
+        return false;
+    }
+
+    private void enforceBudget() {
+        long used = 0;
+        for (int i = 1; i < entries.size(); i++) {
+            used += sizeOf(entries.get(i).image);
+        }
+        // Исходное изображение и текущее состояние всегда остаются в памяти
+        for (int i = 1; i < entries.size() && used > memoryBudget; i++) {
+            Entry entry = entries.get(i);
+            if (i == position || entry.image == null) continue;
+
+            // Разницу пишем, пока её основа ещё в памяти: следующая контрольная
+            // точка - до выгрузки этого состояния, эта - если предыдущее не выгружено
+            if (i + 1 < entries.size() && isPendingCheckpoint(i + 1)) {
+                writeDelta(entries.get(i + 1), entry);
+            }
+            if (isPendingCheckpoint(i)) {
+                writeDelta(entry, entries.get(i - 1));
+            }
+            used -= sizeOf(entry.image);
+            entry.image = null;
+        }
+        enforceDiskBudget();
+    }
+
+    private boolean isPendingCheckpoint(int index) {
+        Entry entry = entries.get(index);
+        return index % CHECKPOINT_INTERVAL == 0 && entry.tiles == null
+                && entry.image != null && entry.spillFile == null;
+    }
+
+    private void enforceDiskBudget() {
+        // Исходное и текущее состояния не удаляются
+        while (position > 1 && diskUsage() > diskBudget) {
+            release(entries.remove(1));
+            position--;
+        }
+    }
+
+    // Без исходного и текущего состояний: их удалением место не освободить
+    private long diskUsage() {
+        long used = 0;
+        Set<TiledImage> counted = Collections.newSetFromMap(new IdentityHashMap<>());
+        Entry current = entries.get(position);
+        if (entries.get(0).tiles != null) counted.add(entries.get(0).tiles);
+        if (current.tiles != null) counted.add(current.tiles);
+        for (Entry entry : entries) {
+            if (entry != current) used += entry.spillBytes;
+            if (entry.tiles != null && counted.add(entry.tiles)) {
+                used += entry.tiles.getSpilledBytes();
+            }
+        }
+        return used;
+    }
+
+    private static long sizeOf(BufferedImage image) {
+        if (image == null) return 0;
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    /**
+     * Пишет состояние на диск по тайлам: тайл, совпадающий с тем же тайлом
+     * предыдущего состояния, хранится одним флагом, остальные - сжатыми.
+     */
+    private void writeDelta(Entry entry, Entry base) {
+        BufferedImage image = entry.image;
+        // Сравниваем только с состоянием в памяти; иначе пишем целиком
+        BufferedImage previous = base.image;
+        int dataType = image.getRaster().getDataBuffer().getDataType();
+        if (dataType != DataBuffer.TYPE_BYTE && dataType != DataBuffer.TYPE_USHORT
+                && dataType != DataBuffer.TYPE_INT) {
+            return;
+        }
+        boolean comparable = previous != null
+                && previous.getSampleModel().equals(image.getSampleModel())
+                && previous.getColorModel().equals(image.getColorModel());
+
+        try {
+            Path file = Files.createTempFile("imageconverter-history", ".bin");
+            file.toFile().deleteOnExit();
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            byte[] compressed = new byte[64 * 1024];
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+                out.writeInt(image.getWidth());
+                out.writeInt(image.getHeight());
+                for (Rectangle tile : tiles(image)) {
+                    byte[] data = tileBytes(image.getRaster(), tile);
+                    if (comparable && Arrays.equals(data, tileBytes(previous.getRaster(), tile))) {
+                        out.writeBoolean(false);
+                        continue;
+                    }
+                    out.writeBoolean(true);
+                    deflater.reset();
+                    deflater.setInput(data);
+                    deflater.finish();
+                    ByteBuffer block = ByteBuffer.allocate(data.length / 2 + 64);
+                    while (!deflater.finished()) {
+                        int n = deflater.deflate(compressed);
+                        if (block.remaining() < n) {
+                            block = ByteBuffer.allocate(block.capacity() * 2 + n).put(block.flip());
+                        }
+                        block.put(compressed, 0, n);
+                    }
+                    out.writeInt(block.position());
+                    out.write(block.array(), 0, block.position());
+                }
+            } finally {
+                deflater.end();
+            }
+            entry.colorModel = image.getColorModel();
+            entry.sampleModel = image.getSampleModel();
+            entry.spillFile = file;
+            entry.spillBytes = Files.size(file);
+            entry.deltaBase = comparable ? base : null;
+        } catch (IOException e) {
+            // Без файла состояние всё равно восстановимо повтором операции
+            System.err.println("Error writing history to disk: " + e.getMessage());
+        }
+    }
+
+    private BufferedImage readDelta(int index) {
+        Entry entry = entries.get(index);
+        // Предыдущее состояние нужно, только если есть совпавшие тайлы
+        BufferedImage previous = null;
+        Inflater inflater = new Inflater();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(entry.spillFile)))) {
+            SampleModel model = entry.sampleModel.createCompatibleSampleModel(in.readInt(), in.readInt());
+            BufferedImage image = new BufferedImage(entry.colorModel, Raster.createWritableRaster(model, null),
+                    entry.colorModel.isAlphaPremultiplied(), null);
+            for (Rectangle tile : tiles(image)) {
+                if (!in.readBoolean()) {
+                    if (previous == null) previous = stateAt(baseIndex(entry));
+                    image.getRaster().setDataElements(tile.x, tile.y, tile.width, tile.height,
+                            previous.getRaster().getDataElements(tile.x, tile.y, tile.width, tile.height, null));
+                    continue;
+                }
+                byte[] block = new byte[in.readInt()];
+                in.readFully(block);
+                byte[] data = new byte[tileBytes(image.getRaster(), tile).length];
+                inflater.reset();
+                inflater.setInput(block);
+                inflater.inflate(data);
+                setTileBytes(image.getRaster(), tile, data);
+            }
+            return image;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read history state", e);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupted history state", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private int baseIndex(Entry entry) {
+        int index = entry.deltaBase != null ? entries.indexOf(entry.deltaBase) : -1;
+        if (index < 0) {
+            throw new IllegalStateException("Base of history state " + entry.name + " is missing");
+        }
+        return index;
+    }
+
+    private static void deleteSpill(Entry entry) {
+        if (entry.spillFile == null) return;
+        try {
+            Files.deleteIfExists(entry.spillFile);
+        } catch (IOException e) {
+            System.err.println("Error removing history file: " + e.getMessage());
+        }
+        entry.spillFile = null;
+        entry.spillBytes = 0;
+        entry.deltaBase = null;
+    }
+
+    private static List<Rectangle> tiles(BufferedImage image) {
+        List<Rectangle> tiles = new ArrayList<>();
+        for (int y = 0; y < image.getHeight(); y += TILE_SIZE) {
+            for (int x = 0; x < image.getWidth(); x += TILE_SIZE) {
+                tiles.add(new Rectangle(x, y,
+                        Math.min(TILE_SIZE, image.getWidth() - x), Math.min(TILE_SIZE, image.getHeight() - y)));
+            }
+        }
+        return tiles;
+    }
+
+    private static byte[] tileBytes(Raster raster, Rectangle tile) {
+        Object data = raster.getDataElements(tile.x, tile.y, tile.width, tile.height, null);
+        if (data instanceof byte[]) {
+            return (byte[]) data;
+        }
+        if (data instanceof short[]) {
+            short[] values = (short[]) data;
+            ByteBuffer buffer = ByteBuffer.allocate(values.length * 2);
+            buffer.asShortBuffer().put(values);
+            return buffer.array();
+        }
+        int[] values = (int[]) data;
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 4);
+        buffer.asIntBuffer().put(values);
+        return buffer.array();
+    }
+
+    private static void setTileBytes(WritableRaster raster, Rectangle tile, byte[] bytes) {
+        Object data;
+        switch (raster.getTransferType()) {
+            case DataBuffer.TYPE_BYTE:
+                data = bytes;
+                break;
+            case DataBuffer.TYPE_USHORT: {
+                short[] values = new short[bytes.length / 2];
+                ByteBuffer.wrap(bytes).asShortBuffer().get(values);
+                data = values;
+                break;
+            }
+            default: {
+                int[] values = new int[bytes.length / 4];
+                ByteBuffer.wrap(bytes).asIntBuffer().get(values);
+                data = values;
+                break;
+            }
+        }
+        raster.setDataElements(tile.x, tile.y, tile.width, tile.height, data);
+    }
+}
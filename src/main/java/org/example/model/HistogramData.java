@@ -1,16 +1,39 @@
 package org.example.model;
 
+import java.util.Arrays;
+
 public class HistogramData {
     private final int[] red;
     private final int[] green;
     private final int[] blue;
     private final int[] gray;
+    private final boolean neutral;
+    private final double error;
+    private final boolean grayExact;
 
     public HistogramData(int[] red, int[] green, int[] blue, int[] gray) {
+        this(red, green, blue, gray, false);
+    }
+
+    /** {@code neutral}: у всех пикселей R == G == B. */
+    public HistogramData(int[] red, int[] green, int[] blue, int[] gray, boolean neutral) {
+        this(red, green, blue, gray, neutral, 0);
+    }
+
+    /** {@code error}: погрешность выборочной гистограммы, см. {@link #getError()}; 0 - точная. */
+    public HistogramData(int[] red, int[] green, int[] blue, int[] gray, boolean neutral, double error) {
+        this(red, green, blue, gray, neutral, error, true);
+    }
+
+    private HistogramData(int[] red, int[] green, int[] blue, int[] gray, boolean neutral, double error,
+                          boolean grayExact) {
         this.red = red;
         this.green = green;
         this.blue = blue;
         this.gray = gray;
+        this.neutral = neutral;
+        this.error = error;
+        this.grayExact = grayExact;
     }
 
     // Геттеры
@@ -18,4 +41,85 @@ public class HistogramData {
     public int[] getGreenHistogram() { return green; }
     public int[] getBlueHistogram() { return blue; }
     public int[] getGrayHistogram() { return gray; }
-}
\ No newline at end of file
+    public boolean isNeutral() { return neutral; }
+
+    /**
+     * Для гистограммы по выборке пикселей: с вероятностью 99% доля пикселей
+     * в любом непрерывном диапазоне столбцов любого канала отличается от точной
+     * не больше чем на это значение. Столбцы такой гистограммы - число
+     * пикселей выборки, а не изображения. 0 - гистограмма точная.
+     */
+    public double getError() { return error; }
+    public boolean isExact() { return error == 0; }
+
+    /**
+     * Канал яркости посчитан по пикселям, а не оценён через {@link #remap}.
+     * Каналы R, G, B от этого не зависят.
+     */
+    public boolean isGrayExact() { return grayExact; }
+
+    /**
+     * Погрешность {@link #getError()} для выборки из {@code samples} пикселей:
+     * по неравенству Дворецкого-Кифера-Вольфовица функция распределения
+     * каждого из четырёх каналов отклоняется не больше чем на
+     * sqrt(ln(2 / 0.0025) / 2n), диапазон столбцов - разность двух её значений.
+     * Стратифицированная выборка точнее независимой, так что оценка с запасом.
+     */
+    public static double samplingError(long samples) {
+        return 2 * Math.sqrt(Math.log(2 / 0.0025) / (2.0 * samples));
+    }
+
+    /** Число столбцов: 256 для 8-битных изображений, 65536 для 16-битных и float. */
+    public int getBins() { return red.length; }
+
+    /**
+     * Та же гистограмма с другим числом столбцов: значение переходит
+     * в ближайшее по новой шкале, как при переводе 16 бит в 8.
+     * Для вывода на экран 16-битные гистограммы сводятся к 256 столбцам.
+     */
+    public HistogramData rebin(int bins) {
+        if (bins == getBins()) return this;
+        return new HistogramData(rebinChannel(red, bins), rebinChannel(green, bins),
+                rebinChannel(blue, bins), rebinChannel(gray, bins), neutral, error, grayExact);
+    }
+
+    private static int[] rebinChannel(int[] channel, int bins) {
+        int[] result = new int[bins];
+        long top = channel.length - 1;
+        for (int i = 0; i < channel.length; i++) {
+            result[(int) ((i * (bins - 1L) + top / 2) / top)] += channel[i];
+        }
+        return result;
+    }
+
+    /**
+     * Гистограмма изображения после поканального преобразования таблицами
+     * (по значению на столбец, {@link #getBins()} штук), без повторного прохода
+     * по пикселям. Каналы R, G, B переносятся через свои таблицы точно.
+     * Яркость (R + G + B) / 3 зависит от сочетания каналов в пикселе, поэтому
+     * точно выводится только для нейтральных изображений и одинаковых таблиц;
+     * иначе она оценивается через среднюю из трёх таблиц и
+     * {@link #isGrayExact()} == false.
+     */
+    public HistogramData remap(int[] redTable, int[] greenTable, int[] blueTable) {
+        boolean same = Arrays.equals(redTable, greenTable) && Arrays.equals(greenTable, blueTable);
+        if (neutral && same) {
+            int[] channel = remapChannel(red, redTable);
+            return new HistogramData(channel, channel.clone(), channel.clone(), channel.clone(), true, error, grayExact);
+        }
+        int[] grayTable = new int[gray.length];
+        for (int i = 0; i < grayTable.length; i++) {
+            grayTable[i] = (redTable[i] + greenTable[i] + blueTable[i]) / 3;
+        }
+        return new HistogramData(remapChannel(red, redTable), remapChannel(green, greenTable),
+                remapChannel(blue, blueTable), remapChannel(gray, grayTable), false, error, false);
+    }
+
+    private static int[] remapChannel(int[] channel, int[] table) {
+        int[] result = new int[channel.length];
+        for (int i = 0; i < channel.length; i++) {
+            result[table[i]] += channel[i];
+        }
+        return result;
+    }
+}
@@ -1,15 +1,197 @@
 package org.example.model;
 
-import java.awt.*;
+import org.example.utils.ImageUtils;
+
+import javax.swing.SwingUtilities;
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
-import java.util.ArrayList;
+import java.awt.image.RenderedImage;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Состояние редактора. Всё, что видят панели и контроллеры, публикуется
+ * одним неизменяемым {@link Snapshot}, поэтому читать модель можно из любого
+ * потока и без блокировок. Изменения выполняются под монитором модели.
+ * Уведомления слушателей приходят в EDT и сливаются: серия изменений
+ * до ближайшей обработки событий даёт одно уведомление.
+ */
 public class ImageModel {
-    private BufferedImage originalImage;
-    private BufferedImage currentImage;
-    private boolean modified = false;
-    private List<ImageChangeListener> listeners = new ArrayList<>();
+    // Размер экранной копии для изображений, открытых тайлами
+    public static final int TILED_PREVIEW_SIZE = 2048;
+    // Размер уменьшенной копии, по которой идёт правка в режиме прокси
+    public static final int PROXY_SIZE = 2048;
+    // Пикселей в выборке для гистограммы на экране
+    public static final int HISTOGRAM_SAMPLES = 65536;
+
+    // Уменьшенная копия и гистограмма исходного изображения; считаются при первом запросе
+    private static final class Original {
+        private final BufferedImage image;
+        private final TiledImage tiles;
+        private BufferedImage proxy;
+        private HistogramData histogram;
+
+        Original(BufferedImage image, TiledImage tiles) {
+            this.image = image;
+            this.tiles = tiles;
+        }
+
+        synchronized BufferedImage proxy() {
+            if (proxy == null) {
+                // У тайлового изображения экранная копия уже есть
+                proxy = tiles != null ? image : ImageUtils.downscale(image, PROXY_SIZE, PROXY_SIZE);
+            }
+            return proxy;
+        }
+
+        synchronized HistogramData histogram(HistogramData known) {
+            if (histogram == null) {
+                histogram = tiles != null ? tiles.calculateHistogram()
+                        : known != null ? known : ImageUtils.calculateHistogram(image);
+            }
+            return histogram;
+        }
+    }
+
+    /**
+     * Согласованное состояние модели на момент чтения. После публикации
+     * не меняется; каждое изменение модели публикует новый снимок.
+     */
+    public static final class Snapshot {
+        private BufferedImage originalImage;
+        private BufferedImage currentImage;
+        // Полноразмерные данные для изображений больше кучи; иначе null
+        private TiledImage originalTiles;
+        private TiledImage currentTiles;
+        // Экранная копия currentTiles; если currentImage - другое изображение
+        // (предпросмотр ползунков), тайлы ему не соответствуют
+        private BufferedImage tilesPreview;
+        private boolean modified;
+        // Правки текущего изображения относительно исходного
+        private OperationGraph graph = new OperationGraph();
+        // Увеличивается при каждой смене текущего изображения
+        private long version;
+        // Гистограмма последнего посчитанного изображения и само это изображение
+        private HistogramData histogram;
+        private BufferedImage histogramImage;
+        private HistogramData originalHistogram;
+        private Original original;
+        // Правка по уменьшенной копии, полный размер - по запросу и при сохранении
+        private boolean proxyMode;
+
+        private Snapshot copy() {
+            Snapshot copy = new Snapshot();
+            copy.originalImage = originalImage;
+            copy.currentImage = currentImage;
+            copy.originalTiles = originalTiles;
+            copy.currentTiles = currentTiles;
+            copy.tilesPreview = tilesPreview;
+            copy.modified = modified;
+            copy.graph = graph;
+            copy.version = version;
+            copy.histogram = histogram;
+            copy.histogramImage = histogramImage;
+            copy.originalHistogram = originalHistogram;
+            copy.original = original;
+            copy.proxyMode = proxyMode;
+            return copy;
+        }
+
+        public BufferedImage getOriginalImage() { return originalImage; }
+        public BufferedImage getCurrentImage() { return currentImage; }
+        public TiledImage getOriginalTiles() { return originalTiles; }
+        public TiledImage getCurrentTiles() { return currentTiles; }
+        public OperationGraph getGraph() { return graph; }
+        public boolean isModified() { return modified; }
+        public long getVersion() { return version; }
+        public boolean hasImage() { return originalImage != null; }
+        public boolean isTiled() { return originalTiles != null; }
+
+        /**
+         * Текущее изображение в полном размере: тайлы, если на экране их копия,
+         * иначе само {@link #getCurrentImage()}.
+         */
+        public RenderedImage getFullImage() {
+            return currentTiles != null && currentImage == tilesPreview ? currentTiles : currentImage;
+        }
+
+        /** Исходное изображение в полном размере: тайлы или само {@link #getOriginalImage()}. */
+        public RenderedImage getFullOriginal() {
+            return originalTiles != null ? originalTiles : originalImage;
+        }
+
+        public boolean isProxyMode() {
+            return proxyMode;
+        }
+
+        /**
+         * Исходное изображение, по которому идёт правка: в режиме прокси -
+         * уменьшенная копия, иначе само исходное. При первом вызове копия
+         * строится, поэтому вызывать вне EDT.
+         */
+        public BufferedImage getEditSource() {
+            return proxyMode && original != null ? original.proxy() : originalImage;
+        }
+
+        /**
+         * Точная гистограмма полноразмерного исходного изображения (для тайлового -
+         * по тайлам, а не по экранной копии). При первом вызове может потребовать
+         * прохода по изображению, поэтому вызывать вне EDT.
+         */
+        public HistogramData getFullHistogram() {
+            return original != null ? original.histogram(originalHistogram) : null;
+        }
+
+        /**
+         * Текущее состояние посчитано не в полном размере (правка в режиме прокси
+         * или предпросмотр ползунков): перед сохранением граф нужно применить
+         * к полному изображению.
+         */
+        public boolean isRenderPending() {
+            if (originalImage == null) return false;
+            if (originalTiles != null) return currentTiles == null;
+            return currentImage.getWidth() != originalImage.getWidth()
+                    || currentImage.getHeight() != originalImage.getHeight();
+        }
+
+        /** Размер исходного изображения в пикселях; до окончания открытия - размер предпросмотра. */
+        public Dimension getFullSize() {
+            RenderedImage full = originalTiles != null ? originalTiles
+                    : originalImage != null ? originalImage : currentImage;
+            return full != null ? new Dimension(full.getWidth(), full.getHeight()) : new Dimension();
+        }
+
+        /** Гистограмма исходного изображения, если она уже посчитана, иначе null. */
+        public HistogramData getOriginalHistogram() {
+            return originalHistogram;
+        }
+
+        /** Точная гистограмма, если она уже посчитана именно для текущего изображения, иначе null. */
+        public HistogramData getCurrentHistogram() {
+            return histogramImage != null && histogramImage == currentImage && histogram.isExact() ? histogram : null;
+        }
+    }
+
+    private final AtomicReference<Snapshot> state = new AtomicReference<>(new Snapshot());
+    private final List<ImageChangeListener> listeners = new CopyOnWriteArrayList<>();
+    // Уведомление уже поставлено в очередь EDT
+    private final AtomicBoolean notifyPending = new AtomicBoolean();
+    private final EditHistory history = new EditHistory();
+
+    private volatile BufferedImage histogramPending;
+    // Размер выборки для гистограммы на экране (0 - сразу точная) и замена её точной
+    private final int histogramSamples = Integer.getInteger("imageconverter.histogramSamples", HISTOGRAM_SAMPLES);
+    private final boolean histogramRefinement = Boolean.parseBoolean(
+            System.getProperty("imageconverter.histogramRefinement", "true"));
+    private final ExecutorService histogramExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "histogram");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public interface ImageChangeListener {
         void onImageChanged();
@@ -19,72 +201,376 @@ public class ImageModel {
         listeners.add(listener);
     }
 
+    public void removeImageChangeListener(ImageChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    // Слушатели читают последний снимок, поэтому промежуточные можно пропустить
     private void notifyListeners() {
-        for (ImageChangeListener listener : listeners) {
-            listener.onImageChanged();
+        if (notifyPending.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(() -> {
+                notifyPending.set(false);
+                for (ImageChangeListener listener : listeners) {
+                    listener.onImageChanged();
+                }
+            });
+        }
+    }
+
+    /** Текущее состояние целиком: все значения в нём относятся к одной версии. */
+    public Snapshot getSnapshot() {
+        return state.get();
+    }
+
+    /**
+     * Уменьшенная копия файла, который ещё декодируется: она только
+     * показывается, правки станут доступны после {@code setOriginalImage}.
+     * null - убрать изображение (например, если чтение не удалось).
+     */
+    public synchronized void setLoadingPreview(BufferedImage preview) {
+        open(null, preview, null);
+        history.reset(null, null);
+        notifyListeners();
+    }
+
+    /**
+     * Открывает изображение; правки и ползунки сброшены.
+     *
+     * @param working копия {@code image} для правок (см. {@link #copyImage}),
+     *                сделанная заранее, например в потоке загрузки
+     */
+    public synchronized void setOriginalImage(BufferedImage image, BufferedImage working) {
+        Snapshot next = open(image, working, null);
+        history.reset(next.currentImage, null);
+        notifyListeners();
+    }
+
+    /**
+     * Открывает изображение, не помещающееся в кучу: панели и ползунки
+     * работают с экранной копией, полноразмерные операции - с тайлами.
+     *
+     * @param preview экранная копия тайлов, см. {@link #TILED_PREVIEW_SIZE};
+     *                для неё нужен проход по всем тайлам, поэтому она
+     *                считается заранее, в потоке загрузки
+     * @param working копия {@code preview} для правок
+     */
+    public synchronized void setOriginalImage(TiledImage tiles, BufferedImage preview, BufferedImage working) {
+        open(preview, working, tiles);
+        history.reset(working, tiles);
+        notifyListeners();
+    }
+
+    private Snapshot open(BufferedImage original, BufferedImage current, TiledImage tiles) {
+        Snapshot previous = state.get();
+        Snapshot next = new Snapshot();
+        next.originalImage = original;
+        next.currentImage = current;
+        next.originalTiles = tiles;
+        next.currentTiles = tiles;
+        next.tilesPreview = tiles != null ? current : null;
+        next.original = original != null ? new Original(original, tiles) : null;
+        next.proxyMode = previous.proxyMode;
+        next.version = previous.version + 1;
+        next.histogram = previous.histogram;
+        next.histogramImage = previous.histogramImage;
+        state.set(next);
+        return next;
+    }
+
+    /** Текущие правки; новый граф строится от него и передаётся в {@code applyEdit}. */
+    public OperationGraph getGraph() {
+        return state.get().graph;
+    }
+
+    /**
+     * Новое состояние после правки, которое попадает в историю отмены.
+     *
+     * @param image результат графа для исходного изображения
+     */
+    public synchronized void applyEdit(String name, OperationGraph graph, BufferedImage image, HistogramData histogram) {
+        Snapshot next = state.get().copy();
+        setGraph(next, graph);
+        // У тайлового изображения это правка по копии: полноразмерных тайлов для неё ещё нет
+        next.currentTiles = null;
+        next.tilesPreview = null;
+        updateCurrent(next, image, histogram);
+        next.modified = !graph.isEmpty();
+        state.set(next);
+        BufferedImage source = next.originalImage;
+        history.push(name, () -> graph.evaluate(source, false), graph, image, null, histogram);
+        notifyListeners();
+    }
+
+    /**
+     * Правка тайлового изображения: новый полноразмерный результат.
+     *
+     * @param preview его экранная копия, см. {@link #TILED_PREVIEW_SIZE}
+     */
+    public synchronized void applyEdit(String name, OperationGraph graph, TiledImage tiles, BufferedImage preview) {
+        Snapshot next = state.get().copy();
+        setGraph(next, graph);
+        next.currentTiles = tiles;
+        next.tilesPreview = preview;
+        updateCurrent(next, preview, null);
+        next.modified = !graph.isEmpty();
+        state.set(next);
+        history.push(name, null, graph, preview, tiles, null);
+        notifyListeners();
+    }
+
+    /**
+     * Полноразмерный результат текущего графа, посчитанный после правки
+     * по уменьшенной копии: заменяет её в текущем состоянии, новой записи
+     * в истории не появляется.
+     *
+     * @return false, если граф успел измениться и результат не нужен
+     */
+    public synchronized boolean applyRender(OperationGraph graph, BufferedImage image, HistogramData histogram) {
+        Snapshot next = state.get().copy();
+        if (next.graph != graph) return false;
+        if (image == next.originalImage) {
+            // Пустой граф: текущее изображение - всегда отдельная копия
+            image = copyImage(image);
         }
+        updateCurrent(next, image, histogram);
+        next.modified = !graph.isEmpty();
+        state.set(next);
+        history.replaceCurrent(image, null, histogram);
+        notifyListeners();
+        return true;
+    }
+
+    /** То же для тайлового изображения: полноразмерные тайлы и их экранная копия. */
+    public synchronized boolean applyRender(OperationGraph graph, TiledImage tiles, BufferedImage preview) {
+        Snapshot next = state.get().copy();
+        if (next.graph != graph) return false;
+        next.currentTiles = tiles;
+        next.tilesPreview = preview;
+        updateCurrent(next, preview, null);
+        next.modified = !graph.isEmpty();
+        state.set(next);
+        history.replaceCurrent(preview, tiles, null);
+        notifyListeners();
+        return true;
     }
 
-    public void setOriginalImage(BufferedImage image) {
-        this.originalImage = image;
-        this.currentImage = copyImage(image);
-        this.modified = false;
+    /** Режим прокси: правки считаются по уменьшенной копии, см. {@link Snapshot#getEditSource()}. */
+    public synchronized void setProxyMode(boolean proxyMode) {
+        Snapshot next = state.get().copy();
+        if (next.proxyMode == proxyMode) return;
+        next.proxyMode = proxyMode;
+        state.set(next);
         notifyListeners();
     }
 
+    public boolean isProxyMode() {
+        return state.get().proxyMode;
+    }
+
+    private static void setGraph(Snapshot next, OperationGraph graph) {
+        OperationGraph previous = next.graph;
+        next.graph = graph;
+        graph.trimCaches(previous);
+    }
+
+    public synchronized boolean canUndo() {
+        return history.canUndo();
+    }
+
+    public synchronized boolean canRedo() {
+        return history.canRedo();
+    }
+
+    public synchronized void undo() {
+        restore(history.undo());
+    }
+
+    public synchronized void redo() {
+        restore(history.redo());
+    }
+
+    /** Возвращает на экран текущее состояние истории, например после предпросмотра. */
+    public synchronized void showCurrentState() {
+        restore(history.current());
+    }
+
+    private void restore(EditHistory.State restored) {
+        if (restored == null) return;
+        Snapshot next = state.get().copy();
+        setGraph(next, restored.getGraph());
+        next.currentImage = restored.getImage();
+        next.currentTiles = restored.getTiles();
+        next.tilesPreview = restored.getTiles() != null ? restored.getImage() : null;
+        next.modified = !restored.getGraph().isEmpty();
+        next.version++;
+        if (restored.getHistogram() != null) {
+            next.histogram = restored.getHistogram();
+            next.histogramImage = next.currentImage;
+        }
+        state.set(next);
+        notifyListeners();
+    }
+
+    public boolean isTiled() {
+        return state.get().isTiled();
+    }
+
+    public TiledImage getOriginalTiles() {
+        return state.get().originalTiles;
+    }
+
+    public TiledImage getCurrentTiles() {
+        return state.get().currentTiles;
+    }
+
+    /** Что сохранять: полноразмерные тайлы или текущее изображение. */
+    public RenderedImage getImageForSave() {
+        Snapshot current = state.get();
+        return current.currentTiles != null ? current.currentTiles : current.currentImage;
+    }
+
     public BufferedImage getOriginalImage() {
-        return originalImage;
+        return state.get().originalImage;
     }
 
     public BufferedImage getCurrentImage() {
-        return currentImage;
+        return state.get().currentImage;
     }
 
     public void setCurrentImage(BufferedImage image) {
-        this.currentImage = image;
-        this.modified = !imagesEqual(originalImage, currentImage);
+        setCurrentImage(image, null);
+    }
+
+    /**
+     * Любое изображение, пришедшее сюда, считается изменённым: возврат к
+     * исходному делается через {@link #resetToOriginal()}, поэтому
+     * сравнивать пиксели не нужно.
+     *
+     * @param histogram гистограмма нового изображения, если она известна заранее
+     *                  (например, выведена через {@link HistogramData#remap}); null - пересчитать
+     */
+    public synchronized void setCurrentImage(BufferedImage image, HistogramData histogram) {
+        Snapshot next = state.get().copy();
+        updateCurrent(next, image, histogram);
+        state.set(next);
         notifyListeners();
     }
 
-    public void resetToOriginal() {
-        if (originalImage != null) {
-            this.currentImage = copyImage(originalImage);
-            this.modified = false;
-            notifyListeners();
+    private static void updateCurrent(Snapshot next, BufferedImage image, HistogramData histogram) {
+        next.currentImage = image;
+        next.modified = true;
+        next.version++;
+        if (histogram != null) {
+            next.histogram = histogram;
+            next.histogramImage = image;
+        }
+    }
+
+    /** Возврат к исходному; если изображение было изменено, сброс можно отменить. */
+    public synchronized void resetToOriginal() {
+        Snapshot next = state.get().copy();
+        if (next.originalImage == null) return;
+
+        // Предпросмотр без правок в истории сбросом не считается
+        boolean hadEdits = !next.graph.isEmpty();
+        next.currentTiles = next.originalTiles;
+        next.currentImage = copyImage(next.originalImage);
+        next.tilesPreview = next.originalTiles != null ? next.currentImage : null;
+        next.modified = false;
+        next.version++;
+        if (next.originalHistogram != null) {
+            next.histogram = next.originalHistogram;
+            next.histogramImage = next.currentImage;
+        }
+        setGraph(next, new OperationGraph());
+        state.set(next);
+        if (hadEdits) {
+            BufferedImage original = next.originalImage;
+            history.push("Reset", () -> copyImage(original), next.graph,
+                    next.currentImage, next.originalTiles, next.originalHistogram);
+        }
+        notifyListeners();
+    }
+
+    /**
+     * Гистограмма текущего изображения для вывода на экран, считается один раз
+     * на изображение. Если она ещё не готова, расчёт запускается в фоне,
+     * а до его окончания возвращается предыдущая гистограмма (или null);
+     * по готовности слушатели получают уведомление. Для больших изображений
+     * сначала публикуется гистограмма по выборке (размер - свойство
+     * {@code imageconverter.histogramSamples}, 0 - сразу точная), затем точная,
+     * если уточнение не выключено свойством {@code imageconverter.histogramRefinement}.
+     * Где важна точность, нужна {@link #getCurrentHistogram()}.
+     */
+    public HistogramData getHistogram() {
+        Snapshot current = state.get();
+        BufferedImage image = current.currentImage;
+        boolean refine = histogramRefinement;
+        // Гистограмма, пересчитанная через таблицы правки, тоже уточняется,
+        // если её серый канал только оценён
+        boolean ready = current.histogramImage == image
+                && (current.histogram.isExact() && current.histogram.isGrayExact() || !refine);
+        if (image != null && !ready && histogramPending != image) {
+            histogramPending = image;
+            int samples = histogramSamples;
+            boolean sampled = current.histogramImage != image
+                    && samples > 0 && (long) image.getWidth() * image.getHeight() > samples;
+            histogramExecutor.execute(() -> {
+                // Изображение успели сменить: считать будем уже для нового
+                if (histogramPending != image) return;
+                if (sampled) {
+                    histogramComputed(image, ImageUtils.sampleHistogram(image, samples), !refine);
+                    if (!refine || histogramPending != image) return;
+                }
+                histogramComputed(image, ImageUtils.calculateHistogram(image), true);
+            });
+        }
+        return current.histogram;
+    }
+
+    private synchronized void histogramComputed(BufferedImage image, HistogramData result, boolean last) {
+        if (last && histogramPending == image) {
+            histogramPending = null;
+        }
+        Snapshot next = state.get().copy();
+        if (next.currentImage != image) return;
+        next.histogram = result;
+        next.histogramImage = image;
+        if (!next.modified && result.isExact()) {
+            next.originalHistogram = result;
         }
+        state.set(next);
+        if (result.isExact()) {
+            history.setHistogram(image, result);
+        }
+        notifyListeners();
+    }
+
+    /** Гистограмма исходного изображения, если она уже посчитана, иначе null. */
+    public HistogramData getOriginalHistogram() {
+        return state.get().getOriginalHistogram();
+    }
+
+    /** Гистограмма, если она уже посчитана именно для текущего изображения, иначе null. */
+    public HistogramData getCurrentHistogram() {
+        return state.get().getCurrentHistogram();
     }
 
     public boolean hasImage() {
-        return originalImage != null;
+        return state.get().hasImage();
     }
 
     public boolean isModified() {
-        return modified;
+        return state.get().modified;
     }
 
-    private BufferedImage copyImage(BufferedImage source) {
-        BufferedImage copy = new BufferedImage(
-                source.getWidth(),
-                source.getHeight(),
-                source.getType());
-        Graphics g = copy.getGraphics();
-        g.drawImage(source, 0, 0, null);
-        g.dispose();
-        return copy;
+    public long getVersion() {
+        return state.get().version;
     }
 
-    private boolean imagesEqual(BufferedImage img1, BufferedImage img2) {
-        if (img1 == img2) return true;
-        if (img1 == null || img2 == null) return false;
-        if (img1.getWidth() != img2.getWidth() || img1.getHeight() != img2.getHeight()) return false;
-
-        for (int y = 0; y < img1.getHeight(); y++) {
-            for (int x = 0; x < img1.getWidth(); x++) {
-                if (img1.getRGB(x, y) != img2.getRGB(x, y)) {
-                    return false;
-                }
-            }
-        }
-        return true;
+    /** Отдельная копия изображения: растр той же структуры, планарное остаётся планарным. */
+    public static BufferedImage copyImage(BufferedImage source) {
+        return new BufferedImage(source.getColorModel(), source.copyData(null),
+                source.isAlphaPremultiplied(), null);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,231 @@
+package org.example.model;
+
+import org.example.operations.OperationChain;
+import org.example.utils.ColorAdjustments;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Неразрушающее редактирование: цепочка операций над исходным изображением.
+ * Кнопки панели инструментов добавляют операции, ползунки меняют завершающий
+ * узел коррекции (яркость, контраст, насыщенность, гамма).
+ * Граф неизменяемый: правка возвращает новый граф, который делит с прежним
+ * узлы выше изменённого, поэтому их кэшированные результаты остаются
+ * действительными, а пересчитывается только изменённый узел и всё, что ниже.
+ * Результаты считаются лениво, при первом запросе; несколько ещё не
+ * посчитанных операций выполняются одной {@link OperationChain}.
+ */
+public final class OperationGraph {
+    private static final class Node {
+        // null - узел коррекции ползунками
+        final OperationChain.Step step;
+        // Результат для исходного изображения модели; null - не посчитан или освобождён.
+        // Два потока могут посчитать одно и то же, это безопасно.
+        volatile BufferedImage output;
+
+        Node(OperationChain.Step step) {
+            this.step = step;
+        }
+    }
+
+    private final List<Node> operations;
+    private final List<String> names;
+    private final ColorAdjustments adjustments;
+    private final Node adjustmentsNode;
+
+    public OperationGraph() {
+        this(List.of(), List.of(), ColorAdjustments.NONE);
+    }
+
+    private OperationGraph(List<Node> operations, List<String> names, ColorAdjustments adjustments) {
+        this.operations = operations;
+        this.names = names;
+        this.adjustments = adjustments;
+        this.adjustmentsNode = new Node(null);
+    }
+
+    /** Граф с новой операцией в конце цепочки (перед коррекцией ползунками). */
+    public OperationGraph withOperation(OperationChain.Step step) {
+        return withOperation(step, null);
+    }
+
+    /**
+     * @param output уже посчитанный результат операции для исходного изображения
+     *               модели (например, вместе с гистограммой); null - посчитать при запросе
+     */
+    public OperationGraph withOperation(OperationChain.Step step, BufferedImage output) {
+        Node node = new Node(step);
+        node.output = output;
+        List<Node> nodes = new ArrayList<>(operations);
+        nodes.add(node);
+        List<String> nodeNames = new ArrayList<>(names);
+        nodeNames.add(step.getName());
+        return new OperationGraph(Collections.unmodifiableList(nodes),
+                Collections.unmodifiableList(nodeNames), adjustments);
+    }
+
+    /** Граф с другой коррекцией; при тех же значениях возвращается этот же граф. */
+    public OperationGraph withAdjustments(ColorAdjustments adjustments) {
+        if (this.adjustments.equals(adjustments)) return this;
+        return new OperationGraph(operations, names, adjustments);
+    }
+
+    public ColorAdjustments getAdjustments() {
+        return adjustments;
+    }
+
+    public List<String> getOperationNames() {
+        return names;
+    }
+
+    /** Те же узлы операций, что у {@code other}; коррекция может отличаться. */
+    public boolean hasSameOperations(OperationGraph other) {
+        return other != null && operations.equals(other.operations);
+    }
+
+    public boolean hasOperations() {
+        return !operations.isEmpty();
+    }
+
+    /** Граф ничего не меняет: результат совпадает с исходным изображением. */
+    public boolean isEmpty() {
+        return operations.isEmpty() && adjustments.isIdentity();
+    }
+
+    public BufferedImage evaluate(BufferedImage source) {
+        return evaluate(source, true);
+    }
+
+    /**
+     * Результат всей цепочки для исходного изображения модели.
+     *
+     * @param cache сохранять ли посчитанные результаты в узлах; false - для
+     *              разовых пересчётов старых состояний (например, из истории)
+     */
+    public BufferedImage evaluate(BufferedImage source, boolean cache) {
+        BufferedImage output = adjustmentsNode.output;
+        if (output != null) return output;
+
+        BufferedImage input = evaluateOperations(source, cache);
+        if (adjustments.isIdentity()) return input;
+        output = adjustments.apply(input);
+        if (cache) {
+            adjustmentsNode.output = output;
+        }
+        return output;
+    }
+
+    /** Вход коррекции ползунками: результат всех операций панели инструментов. */
+    public BufferedImage evaluateOperations(BufferedImage source) {
+        return evaluateOperations(source, true);
+    }
+
+    private BufferedImage evaluateOperations(BufferedImage source, boolean cache) {
+        // Начинаем с последнего узла, у которого есть готовый результат
+        BufferedImage image = source;
+        int start = operations.size();
+        while (start > 0) {
+            BufferedImage output = operations.get(start - 1).output;
+            if (output != null) {
+                image = output;
+                break;
+            }
+            start--;
+        }
+        if (start == operations.size()) return image;
+
+        // Оставшиеся операции - одной цепочкой; промежуточные результаты
+        // всё равно освобождаются в trimCaches, сохраняется только последний
+        List<OperationChain.Step> steps = new ArrayList<>();
+        for (int i = start; i < operations.size(); i++) {
+            steps.add(operations.get(i).step);
+        }
+        image = new OperationChain(steps).apply(image);
+        if (cache) {
+            operations.get(operations.size() - 1).output = image;
+        }
+        return image;
+    }
+
+    /**
+     * Результат этого графа можно получить из результата {@code base}:
+     * операции {@code base} - начало этой цепочки, а коррекции у него нет.
+     */
+    public boolean continues(OperationGraph base) {
+        return base.adjustments.isIdentity() && base.operations.size() <= operations.size()
+                && operations.subList(0, base.operations.size()).equals(base.operations);
+    }
+
+    /**
+     * Результат графа по готовому результату графа, который он продолжает
+     * (см. {@link #continues}); кэши узлов не меняются.
+     */
+    public BufferedImage evaluateFrom(OperationGraph base, BufferedImage baseOutput) {
+        if (!continues(base)) {
+            throw new IllegalArgumentException("Graph does not continue the base graph");
+        }
+        BufferedImage image = baseOutput;
+        if (base.operations.size() < operations.size()) {
+            List<OperationChain.Step> steps = new ArrayList<>();
+            for (Node node : operations.subList(base.operations.size(), operations.size())) {
+                steps.add(node.step);
+            }
+            image = new OperationChain(steps).apply(image);
+        }
+        return adjustments.isIdentity() ? image : adjustments.apply(image);
+    }
+
+    /**
+     * Цепочка операций графа, например для пакетной обработки.
+     *
+     * @param withAdjustments включать ли коррекцию ползунками
+     */
+    public OperationChain toChain(boolean withAdjustments) {
+        List<OperationChain.Step> steps = new ArrayList<>();
+        for (Node node : operations) {
+            steps.add(node.step);
+        }
+        if (withAdjustments && !adjustments.isIdentity()) {
+            steps.add(OperationChain.Step.of(adjustments));
+        }
+        return new OperationChain(steps);
+    }
+
+    /**
+     * Полноразмерный результат для изображения, открытого тайлами:
+     * промежуточные результаты не хранятся, поканальные операции
+     * и коррекция ползунками сводятся в одну таблицу.
+     * Для пустой цепочки возвращается {@code source}.
+     */
+    public TiledImage evaluate(TiledImage source, boolean withAdjustments) {
+        return toChain(withAdjustments).apply(source);
+    }
+
+    /**
+     * Освобождает результаты узлов прежнего графа, которых нет в этом,
+     * и промежуточных узлов этого графа. Узлы выше последней операции
+     * больше не меняются, поэтому для пересчёта коррекции достаточно
+     * её входа и её собственного результата.
+     */
+    public void trimCaches(OperationGraph previous) {
+        if (previous != null && previous != this) {
+            Set<Node> live = Collections.newSetFromMap(new IdentityHashMap<>());
+            live.addAll(operations);
+            live.add(adjustmentsNode);
+            for (Node node : previous.operations) {
+                if (!live.contains(node)) node.output = null;
+            }
+            if (!live.contains(previous.adjustmentsNode)) {
+                previous.adjustmentsNode.output = null;
+            }
+        }
+        for (int i = 0; i < operations.size() - 1; i++) {
+            operations.get(i).output = null;
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package org.example.model;
+
+import org.example.utils.PixelAccess;
+import org.example.utils.TileExecutor;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BandedSampleModel;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Изображение из отдельных плоскостей каналов: по массиву {@code byte[]},
+ * {@code short[]} (16 бит без знака) или {@code float[]} (0..1) на канал,
+ * строки подряд без промежутков. Каналов 1 (серый), 3 (R, G, B) или 4 (R, G, B, A).
+ * <p>
+ * Плоскости - это банки {@link DataBuffer} обычного {@link BufferedImage}
+ * с {@link BandedSampleModel}, поэтому {@link #of(BufferedImage)} для такого
+ * изображения и {@link #toBufferedImage()} ничего не копируют. Ядра обработки
+ * проходят по плоскостям без упаковки и распаковки пикселей, а 16-битные
+ * файлы хранятся без потери точности. Копирование нужно только на границах:
+ * при чтении файла в упакованном формате и при выводе на экран или в файл.
+ */
+public final class PlanarImage {
+    public enum Depth {
+        BYTE(DataBuffer.TYPE_BYTE),
+        USHORT(DataBuffer.TYPE_USHORT),
+        FLOAT(DataBuffer.TYPE_FLOAT);
+
+        private final int dataType;
+
+        Depth(int dataType) {
+            this.dataType = dataType;
+        }
+
+        public int getDataType() {
+            return dataType;
+        }
+
+        static Depth of(int dataType) {
+            switch (dataType) {
+                case DataBuffer.TYPE_BYTE: return BYTE;
+                case DataBuffer.TYPE_USHORT: return USHORT;
+                case DataBuffer.TYPE_FLOAT: return FLOAT;
+                default: return null;
+            }
+        }
+    }
+
+    private final int width;
+    private final int height;
+    private final Depth depth;
+    private final DataBuffer buffer;
+
+    private PlanarImage(int width, int height, Depth depth, DataBuffer buffer) {
+        this.width = width;
+        this.height = height;
+        this.depth = depth;
+        this.buffer = buffer;
+    }
+
+    public static PlanarImage create(int width, int height, int channels, Depth depth) {
+        if (channels != 1 && channels != 3 && channels != 4) {
+            throw new IllegalArgumentException("Unsupported channel count: " + channels);
+        }
+        int size = width * height;
+        DataBuffer buffer;
+        switch (depth) {
+            case BYTE:
+                buffer = new DataBufferByte(size, channels);
+                break;
+            case USHORT:
+                buffer = new DataBufferUShort(size, channels);
+                break;
+            default:
+                buffer = new DataBufferFloat(size, channels);
+                break;
+        }
+        return new PlanarImage(width, height, depth, buffer);
+    }
+
+    /**
+     * Можно ли обернуть изображение без копирования: каждый канал в своём
+     * банке с нулевым смещением, строки без промежутков, цвета sRGB или серые.
+     */
+    public static boolean isPlanar(BufferedImage image) {
+        Raster raster = image.getRaster();
+        if (raster.getParent() != null
+                || raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0) {
+            return false;
+        }
+        SampleModel model = raster.getSampleModel();
+        DataBuffer buffer = raster.getDataBuffer();
+        if (!(model instanceof ComponentSampleModel) || Depth.of(buffer.getDataType()) == null) {
+            return false;
+        }
+        ComponentSampleModel components = (ComponentSampleModel) model;
+        int bands = components.getNumBands();
+        if ((bands != 1 && bands != 3 && bands != 4)
+                || components.getPixelStride() != 1 || components.getScanlineStride() != image.getWidth()
+                || buffer.getNumBanks() != bands || buffer.getSize() != image.getWidth() * image.getHeight()) {
+            return false;
+        }
+        for (int b = 0; b < bands; b++) {
+            if (components.getBankIndices()[b] != b || components.getBandOffsets()[b] != 0
+                    || buffer.getOffsets()[b] != 0) {
+                return false;
+            }
+        }
+        return hasPlanarColors(image.getColorModel(), bands);
+    }
+
+    private static boolean hasPlanarColors(ColorModel colorModel, int bands) {
+        if (!(colorModel instanceof ComponentColorModel) || colorModel.isAlphaPremultiplied()
+                || colorModel.hasAlpha() != (bands == 4)) {
+            return false;
+        }
+        ColorSpace space = colorModel.getColorSpace();
+        if (bands == 1 ? space.getType() != ColorSpace.TYPE_GRAY : !space.isCS_sRGB()) {
+            return false;
+        }
+        int dataType = colorModel.getTransferType();
+        if (dataType != DataBuffer.TYPE_FLOAT) {
+            // Неполная разрядность (например, 12 бит в short) масштабируется иначе
+            for (int size : colorModel.getComponentSize()) {
+                if (size != DataBuffer.getDataTypeSize(dataType)) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Число уровней канала, с которым работают операции над изображением:
+     * 256 для 8-битных, 65536 для 16-битных и float (см. {@link #of(BufferedImage)}).
+     */
+    public static int levels(BufferedImage image) {
+        if (isPlanar(image)) {
+            return Depth.of(image.getRaster().getDataBuffer().getDataType()) == Depth.BYTE ? 256 : 65536;
+        }
+        ColorModel colorModel = image.getColorModel();
+        return keepsComponents(colorModel) && colorModel.getTransferType() != DataBuffer.TYPE_BYTE ? 65536 : 256;
+    }
+
+    /** Серое изображение: {@link #of(BufferedImage)} даёт одну плоскость. */
+    public static boolean isGray(BufferedImage image) {
+        ColorModel colorModel = image.getColorModel();
+        return colorModel.getNumComponents() == 1 && keepsComponents(colorModel);
+    }
+
+    // Растр, который of() переводит в плоскости тех же каналов и глубины,
+    // а не в 8-битный RGB: 16 бит и float, а также 8-битный серый
+    private static boolean keepsComponents(ColorModel colorModel) {
+        int components = colorModel.getNumComponents();
+        Depth depth = Depth.of(colorModel.getTransferType());
+        return colorModel instanceof ComponentColorModel && depth != null
+                && (depth != Depth.BYTE || components == 1)
+                && (components == 1 || components == 3 || components == 4)
+                && hasPlanarColors(colorModel, components);
+    }
+
+    /**
+     * Плоскости изображения: без копирования, если {@link #isPlanar(BufferedImage)},
+     * иначе преобразованием. 16-битные и float sRGB/серые растры сохраняют
+     * точность, серые остаются серыми, остальные переводятся в 8-битный RGB
+     * (с альфой, если она есть).
+     */
+    public static PlanarImage of(BufferedImage image) {
+        if (isPlanar(image)) {
+            DataBuffer buffer = image.getRaster().getDataBuffer();
+            return new PlanarImage(image.getWidth(), image.getHeight(),
+                    Depth.of(buffer.getDataType()), buffer);
+        }
+        ColorModel colorModel = image.getColorModel();
+        if (keepsComponents(colorModel)) {
+            return copySamples(image, Depth.of(colorModel.getTransferType()), colorModel.getNumComponents());
+        }
+        return copyRgb(image, colorModel.hasAlpha() ? 4 : 3);
+    }
+
+    private static PlanarImage copySamples(BufferedImage image, Depth depth, int channels) {
+        int width = image.getWidth();
+        PlanarImage result = create(width, image.getHeight(), channels, depth);
+        Raster raster = image.getRaster();
+        DataBuffer target = result.buffer;
+        TileExecutor.forEachBand(width, image.getHeight(), (fromY, toY) -> {
+            float[] row = new float[width];
+            for (int c = 0; c < channels; c++) {
+                for (int y = fromY; y < toY; y++) {
+                    raster.getSamples(0, y, width, 1, c, row);
+                    int base = y * width;
+                    for (int x = 0; x < width; x++) {
+                        target.setElemFloat(c, base + x, row[x]);
+                    }
+                }
+            }
+        });
+        return result;
+    }
+
+    private static PlanarImage copyRgb(BufferedImage image, int channels) {
+        int width = image.getWidth();
+        PlanarImage result = create(width, image.getHeight(), channels, Depth.BYTE);
+        byte[] red = result.bytePlane(0);
+        byte[] green = result.bytePlane(1);
+        byte[] blue = result.bytePlane(2);
+        byte[] alpha = channels == 4 ? result.bytePlane(3) : null;
+        PixelAccess pixels = PixelAccess.of(image);
+        TileExecutor.forEachBand(width, image.getHeight(), (fromY, toY) -> {
+            int[] row = new int[width];
+            for (int y = fromY; y < toY; y++) {
+                pixels.readRow(y, row);
+                int base = y * width;
+                for (int x = 0; x < width; x++) {
+                    int argb = row[x];
+                    red[base + x] = (byte) (argb >> 16);
+                    green[base + x] = (byte) (argb >> 8);
+                    blue[base + x] = (byte) argb;
+                    if (alpha != null) alpha[base + x] = (byte) (argb >>> 24);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Те же плоскости в виде {@link BufferedImage}, без копирования.
+     * Один канал даёт TYPE_BYTE_GRAY или TYPE_USHORT_GRAY.
+     */
+    public BufferedImage toBufferedImage() {
+        int channels = getChannels();
+        SampleModel model = channels == 1
+                ? new PixelInterleavedSampleModel(depth.dataType, width, height, 1, width, new int[]{0})
+                : new BandedSampleModel(depth.dataType, width, height, channels);
+        WritableRaster raster = Raster.createWritableRaster(model, buffer, null);
+        ColorSpace space = ColorSpace.getInstance(channels == 1 ? ColorSpace.CS_GRAY : ColorSpace.CS_sRGB);
+        ColorModel colorModel = new ComponentColorModel(space, channels == 4, false,
+                channels == 4 ? Transparency.TRANSLUCENT : Transparency.OPAQUE, depth.dataType);
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+
+    /**
+     * Копия с 8 битами на канал для 8-битных ядер и таблиц на 256 значений:
+     * каждый канал масштабируется линейно. Для цветных каналов это то же
+     * округление, что у {@link BufferedImage#getRGB(int, int)}; серый канал
+     * {@code getRGB} ещё переводит из линейной шкалы в sRGB, здесь он остаётся
+     * линейным - на экранные значения его переводит
+     * {@link PixelAccess#grayToRgbTable()}.
+     * Для 8-битного изображения возвращается оно само.
+     */
+    public PlanarImage toByteDepth() {
+        if (depth == Depth.BYTE) return this;
+        int channels = getChannels();
+        PlanarImage result = create(width, height, channels, Depth.BYTE);
+        TileExecutor.forEachBand(width, height, (fromY, toY) -> {
+            int from = fromY * width;
+            int to = toY * width;
+            for (int c = 0; c < channels; c++) {
+                byte[] target = result.bytePlane(c);
+                if (depth == Depth.USHORT) {
+                    short[] source = shortPlane(c);
+                    for (int i = from; i < to; i++) {
+                        target[i] = (byte) ((source[i] & 0xFFFF) * 255f / 65535f + 0.5f);
+                    }
+                } else {
+                    float[] source = floatPlane(c);
+                    for (int i = from; i < to; i++) {
+                        target[i] = (byte) (Math.max(0f, Math.min(1f, source[i])) * 255f + 0.5f);
+                    }
+                }
+            }
+        });
+        return result;
+    }
+
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+    public Depth getDepth() { return depth; }
+    public int getChannels() { return buffer.getNumBanks(); }
+    public int getLevels() { return depth == Depth.BYTE ? 256 : 65536; }
+    public boolean hasAlpha() { return getChannels() == 4; }
+
+    /** Плоскость канала {@code c}, строки по {@link #getWidth()} значений. */
+    public byte[] bytePlane(int c) {
+        return ((DataBufferByte) buffer).getData(c);
+    }
+
+    public short[] shortPlane(int c) {
+        return ((DataBufferUShort) buffer).getData(c);
+    }
+
+    public float[] floatPlane(int c) {
+        return ((DataBufferFloat) buffer).getData(c);
+    }
+}
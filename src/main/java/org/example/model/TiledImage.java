@@ -0,0 +1,596 @@
+package org.example.model;
+
+import org.example.utils.ImageLoader;
+import org.example.utils.ImageUtils;
+import org.example.utils.PixelAccess;
+import org.example.utils.TileExecutor;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+import java.util.function.DoubleConsumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Изображение TYPE_INT_RGB, разбитое на квадратные тайлы фиксированного размера.
+ * В памяти держится не больше заданного числа тайлов; давно не использованные
+ * сбрасываются в отображаемый в память временный файл и читаются обратно по
+ * требованию. Реализует {@link RenderedImage}, поэтому его можно рисовать и
+ * записывать через ImageIO (PNG пишется построчно, без сборки целого растра).
+ */
+public class TiledImage implements RenderedImage, Closeable {
+    public static final int DEFAULT_TILE_SIZE = 512;
+
+    private static final int[] MASKS = {0xFF0000, 0xFF00, 0xFF};
+    private static final ColorModel COLOR_MODEL = new DirectColorModel(24, MASKS[0], MASKS[1], MASKS[2]);
+    // Один отображаемый сегмент временного файла не больше 1 ГБ
+    private static final long SEGMENT_BYTES = 1L << 30;
+
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final int tilesX;
+    private final int tilesY;
+    private final int maxResidentTiles;
+    private final long memoryBudget;
+
+    private final LinkedHashMap<Integer, int[]> resident = new LinkedHashMap<>(16, 0.75f, true);
+    private final BitSet dirty = new BitSet();
+    private final BitSet spilled = new BitSet();
+
+    private Path scratchFile;
+    private FileChannel scratch;
+    private MappedByteBuffer[] segments;
+    private boolean closed;
+    private boolean depthReduced;
+
+    public TiledImage(int width, int height, int tileSize, long memoryBudget) {
+        if (width <= 0 || height <= 0 || tileSize <= 0) {
+            throw new IllegalArgumentException("Invalid tiled image size: " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.tilesX = (width + tileSize - 1) / tileSize;
+        this.tilesY = (height + tileSize - 1) / tileSize;
+        this.memoryBudget = memoryBudget;
+        // Не меньше, чем тайлов обрабатывается одновременно, с запасом на чтение и запись
+        this.maxResidentTiles = (int) Math.max(2L * TileExecutor.getParallelism() + 2,
+                memoryBudget / tileBytes());
+    }
+
+    /** Бюджет по умолчанию - четверть максимальной кучи. */
+    public static long defaultMemoryBudget() {
+        return Runtime.getRuntime().maxMemory() / 4;
+    }
+
+    /** Стоит ли открывать изображение такого размера тайлами, а не целиком. */
+    public static boolean shouldTile(long width, long height) {
+        return width * height * 4 > defaultMemoryBudget();
+    }
+
+    public static TiledImage fromImage(BufferedImage image) {
+        TiledImage tiled = new TiledImage(image.getWidth(), image.getHeight(),
+                DEFAULT_TILE_SIZE, defaultMemoryBudget());
+        tiled.copyStrip(image, 0);
+        return tiled;
+    }
+
+    public static TiledImage read(File file) throws IOException {
+        return read(file, null);
+    }
+
+    /**
+     * Декодирует файл за один проход, отдавая готовые полосы в тайлы: в памяти
+     * одновременно только одна полоса, готовые тайлы уходят во временный файл
+     * по мере вытеснения. TIFF читается полосами через
+     * {@link ImageReadParam#setSourceRegion} - он умеет переходить к нужным
+     * строкам без декодирования предыдущих. Если декодер пишет строки не по
+     * порядку (прогрессивный JPEG, чересстрочный PNG), файл читается целиком,
+     * когда помещается в память, иначе - полосами. Прерывание потока
+     * останавливает чтение.
+     *
+     * @param progress доля прочитанного 0..1; может быть null
+     */
+    public static TiledImage read(File file, DoubleConsumer progress) throws IOException {
+        return ImageLoader.withReader(file, reader -> {
+            int width = reader.getWidth(0);
+            int height = reader.getHeight(0);
+            TiledImage tiled = new TiledImage(width, height, DEFAULT_TILE_SIZE, defaultMemoryBudget());
+            try {
+                tiled.depthReduced = ImageLoader.sampleBits(reader) > 8;
+
+                // Полоса кратна высоте тайла и занимает не больше половины бюджета
+                long stripBudget = tiled.memoryBudget / 2 / (4L * width);
+                int stripRows = (int) Math.max(tiled.tileSize,
+                        Math.min(height, stripBudget / tiled.tileSize * tiled.tileSize));
+
+                boolean seekable = reader.isImageTiled(0) || "tif".equalsIgnoreCase(reader.getFormatName());
+                if (seekable || !ImageLoader.readStrips(reader, stripRows, tiled::copyStrip, progress)) {
+                    if (!seekable && 4L * width * height <= Runtime.getRuntime().maxMemory() / 2) {
+                        tiled.copyStrip(ImageLoader.read(reader, progress), 0);
+                    } else {
+                        tiled.readRegions(reader, stripRows, progress);
+                    }
+                }
+            } catch (IOException | RuntimeException | Error e) {
+                tiled.close();
+                throw e;
+            }
+            return tiled;
+        });
+    }
+
+    private void readRegions(ImageReader reader, int stripRows, DoubleConsumer progress) throws IOException {
+        ImageReadParam param = reader.getDefaultReadParam();
+        for (int y = 0; y < height; y += stripRows) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Loading cancelled");
+            }
+            param.setSourceRegion(new Rectangle(0, y, width, Math.min(stripRows, height - y)));
+            copyStrip(reader.read(0, param), y);
+            if (progress != null) {
+                progress.accept((double) Math.min(height, y + stripRows) / height);
+            }
+        }
+    }
+
+    /**
+     * Тайлы хранят 8 бит на канал: true, если в файле каналы были глубже
+     * и при чтении точность уменьшилась.
+     */
+    public boolean isDepthReduced() {
+        return depthReduced;
+    }
+
+    /**
+     * Операция над фрагментом, которой нужно его положение в изображении:
+     * ({@code x}, {@code y}) - левый верхний угол фрагмента.
+     */
+    @FunctionalInterface
+    public interface FragmentOperation {
+        BufferedImage apply(BufferedImage fragment, int x, int y);
+    }
+
+    /** Пустое изображение того же размера и с тем же бюджетом. */
+    public TiledImage createCompatible() {
+        return new TiledImage(width, height, tileSize, memoryBudget);
+    }
+
+    /**
+     * Применяет операцию к каждому тайлу (параллельно) и возвращает новое
+     * изображение. Операция получает тайл как TYPE_INT_RGB без копирования
+     * и может вернуть изображение любого типа того же размера.
+     */
+    public TiledImage map(UnaryOperator<BufferedImage> operation) {
+        return map(operation, 0);
+    }
+
+    /**
+     * То же для операций с окрестностью: операция получает тайл с запасом
+     * {@code halo} пикселей со всех сторон (у краёв изображения - меньше),
+     * из результата берётся только сам тайл.
+     */
+    public TiledImage map(UnaryOperator<BufferedImage> operation, int halo) {
+        return map((fragment, x, y) -> operation.apply(fragment), halo);
+    }
+
+    /** То же, но операция получает и положение фрагмента. */
+    public TiledImage map(FragmentOperation operation, int halo) {
+        TiledImage result = createCompatible();
+        try {
+            TileExecutor.forEachTile(width, height, tileSize, (fromX, fromY, toX, toY) ->
+                    result.setTile(fromX / tileSize, fromY / tileSize, toTileData(process(operation, halo,
+                            fromX / tileSize, fromY / tileSize))));
+        } catch (RuntimeException | Error e) {
+            // Например, отмена: недописанный результат не нужен
+            result.close();
+            throw e;
+        }
+        return result;
+    }
+
+    // Тайл после операции; с запасом операция получает фрагмент шире тайла
+    private BufferedImage process(FragmentOperation operation, int halo, int tx, int ty) {
+        int fromX = tx * tileSize;
+        int fromY = ty * tileSize;
+        if (halo <= 0) {
+            return operation.apply(wrap(copyTile(tx, ty), tileWidth(tx), tileHeight(ty)), fromX, fromY);
+        }
+        Rectangle region = new Rectangle(fromX - halo, fromY - halo,
+                tileWidth(tx) + 2 * halo, tileHeight(ty) + 2 * halo)
+                .intersection(new Rectangle(0, 0, width, height));
+        WritableRaster raster = COLOR_MODEL.createCompatibleWritableRaster(region.width, region.height);
+        copyData(raster.createWritableTranslatedChild(region.x, region.y));
+        BufferedImage processed = operation.apply(new BufferedImage(COLOR_MODEL, raster, false, null),
+                region.x, region.y);
+        return processed.getSubimage(fromX - region.x, fromY - region.y, tileWidth(tx), tileHeight(ty));
+    }
+
+    public HistogramData calculateHistogram() {
+        return calculateHistogram((fragment, x, y) -> fragment, 0);
+    }
+
+    /**
+     * Гистограмма результата {@link #map(FragmentOperation, int)} без сохранения
+     * обработанных тайлов.
+     */
+    public HistogramData calculateHistogram(FragmentOperation operation, int halo) {
+        int[][] histograms = new int[][]{new int[256], new int[256], new int[256], new int[256], new int[1]};
+        for (int ty = 0; ty < tilesY; ty++) {
+            for (int tx = 0; tx < tilesX; tx++) {
+                BufferedImage tile = process(operation, halo, tx, ty);
+                HistogramData part = ImageUtils.calculateHistogram(tile);
+                int[][] partial = {part.getRedHistogram(), part.getGreenHistogram(),
+                        part.getBlueHistogram(), part.getGrayHistogram(), {part.isNeutral() ? 0 : 1}};
+                TileExecutor.mergeHistograms(histograms, partial);
+            }
+        }
+        return new HistogramData(histograms[0], histograms[1], histograms[2], histograms[3],
+                histograms[4][0] == 0);
+    }
+
+    /** Уменьшенная копия, вписанная в {@code maxWidth x maxHeight}; тайлы масштабируются по одному. */
+    public BufferedImage downscaled(int maxWidth, int maxHeight) {
+        double scale = Math.min(1.0, Math.min((double) maxWidth / width, (double) maxHeight / height));
+        int targetWidth = Math.max(1, (int) Math.round(width * scale));
+        int targetHeight = Math.max(1, (int) Math.round(height * scale));
+        BufferedImage result = new BufferedImage(targetWidth, targetHeight, BufferedImage.TYPE_INT_RGB);
+
+        Graphics2D g = result.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        for (int ty = 0; ty < tilesY; ty++) {
+            for (int tx = 0; tx < tilesX; tx++) {
+                int x0 = (int) Math.round(tx * tileSize * scale);
+                int y0 = (int) Math.round(ty * tileSize * scale);
+                int x1 = (int) Math.round((tx * tileSize + tileWidth(tx)) * scale);
+                int y1 = (int) Math.round((ty * tileSize + tileHeight(ty)) * scale);
+                if (x1 <= x0 || y1 <= y0) continue;
+
+                BufferedImage tile = wrap(copyTile(tx, ty), tileWidth(tx), tileHeight(ty));
+                g.drawImage(ImageUtils.downscale(tile, x1 - x0, y1 - y0), x0, y0, x1 - x0, y1 - y0, null);
+            }
+        }
+        g.dispose();
+        return result;
+    }
+
+    /** Собирает всё изображение в память; только для размеров, которые туда помещаются. */
+    public BufferedImage toBufferedImage() {
+        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        copyData(result.getRaster());
+        return result;
+    }
+
+    /** Копия тайла: массив {@code tileSize * tileSize}, строки с шагом tileSize. */
+    public synchronized int[] copyTile(int tx, int ty) {
+        return load(index(tx, ty)).clone();
+    }
+
+    public synchronized void setTile(int tx, int ty, int[] data) {
+        if (data.length != tileSize * tileSize) {
+            throw new IllegalArgumentException("Tile must have " + tileSize * tileSize + " pixels");
+        }
+        int index = index(tx, ty);
+        resident.put(index, data.clone());
+        dirty.set(index);
+        evict();
+    }
+
+    /** Сбрасывает все тайлы во временный файл и освобождает память. */
+    public synchronized void flush() {
+        if (closed) return;
+        for (Map.Entry<Integer, int[]> entry : resident.entrySet()) {
+            int index = entry.getKey();
+            if (dirty.get(index)) {
+                slot(index).put(entry.getValue());
+                dirty.clear(index);
+                spilled.set(index);
+            }
+        }
+        resident.clear();
+    }
+
+    /** Сколько байт тайлов записано во временный файл. */
+    public synchronized long getSpilledBytes() {
+        return spilled.cardinality() * tileBytes();
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int tileWidth(int tx) {
+        return Math.min(tileSize, width - tx * tileSize);
+    }
+
+    public int tileHeight(int ty) {
+        return Math.min(tileSize, height - ty * tileSize);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        resident.clear();
+        segments = null;
+        try {
+            if (scratch != null) {
+                scratch.close();
+                Files.deleteIfExists(scratchFile);
+            }
+        } catch (IOException e) {
+            System.err.println("Error removing scratch file: " + e.getMessage());
+        }
+    }
+
+    private void copyStrip(BufferedImage strip, int stripY) {
+        PixelAccess pixels = PixelAccess.of(strip);
+        int[] row = new int[strip.getWidth()];
+        int firstTileY = stripY / tileSize;
+        int lastTileY = (stripY + strip.getHeight() - 1) / tileSize;
+        for (int ty = firstTileY; ty <= lastTileY; ty++) {
+            int[][] tiles = new int[tilesX][tileSize * tileSize];
+            for (int y = 0; y < tileHeight(ty); y++) {
+                pixels.readRow(ty * tileSize + y - stripY, row);
+                for (int tx = 0; tx < tilesX; tx++) {
+                    System.arraycopy(row, tx * tileSize, tiles[tx], y * tileSize, tileWidth(tx));
+                }
+            }
+            for (int tx = 0; tx < tilesX; tx++) {
+                synchronized (this) {
+                    int index = index(tx, ty);
+                    resident.put(index, tiles[tx]);
+                    dirty.set(index);
+                    evict();
+                }
+            }
+        }
+    }
+
+    private BufferedImage wrap(int[] data, int tileWidth, int tileHeight) {
+        DataBufferInt buffer = new DataBufferInt(data, data.length);
+        WritableRaster raster = Raster.createPackedRaster(buffer, tileWidth, tileHeight, tileSize, MASKS, null);
+        return new BufferedImage(COLOR_MODEL, raster, false, null);
+    }
+
+    private int[] toTileData(BufferedImage image) {
+        int[] data = new int[tileSize * tileSize];
+        PixelAccess pixels = PixelAccess.of(image);
+        int[] row = new int[image.getWidth()];
+        for (int y = 0; y < image.getHeight(); y++) {
+            pixels.readRow(y, row);
+            for (int x = 0; x < row.length; x++) {
+                data[y * tileSize + x] = row[x] & 0xFFFFFF;
+            }
+        }
+        return data;
+    }
+
+    private int index(int tx, int ty) {
+        if (tx < 0 || ty < 0 || tx >= tilesX || ty >= tilesY) {
+            throw new IndexOutOfBoundsException("Tile " + tx + "," + ty);
+        }
+        return ty * tilesX + tx;
+    }
+
+    private long tileBytes() {
+        return 4L * tileSize * tileSize;
+    }
+
+    private int[] load(int index) {
+        if (closed) {
+            throw new IllegalStateException("Tiled image is closed");
+        }
+        int[] data = resident.get(index);
+        if (data == null) {
+            data = new int[tileSize * tileSize];
+            if (spilled.get(index)) {
+                slot(index).get(data);
+            }
+            resident.put(index, data);
+            evict();
+        }
+        return data;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Integer, int[]>> it = resident.entrySet().iterator();
+        while (resident.size() > maxResidentTiles && it.hasNext()) {
+            Map.Entry<Integer, int[]> eldest = it.next();
+            int index = eldest.getKey();
+            if (dirty.get(index)) {
+                slot(index).put(eldest.getValue());
+                dirty.clear(index);
+                spilled.set(index);
+            }
+            it.remove();
+        }
+    }
+
+    private IntBuffer slot(int index) {
+        try {
+            if (scratch == null) {
+                scratchFile = Files.createTempFile("imageconverter-tiles", ".bin");
+                scratchFile.toFile().deleteOnExit();
+                scratch = FileChannel.open(scratchFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                long totalBytes = tileBytes() * tilesX * tilesY;
+                segments = new MappedByteBuffer[(int) ((totalBytes + SEGMENT_BYTES - 1) / SEGMENT_BYTES)];
+            }
+            long tilesPerSegment = SEGMENT_BYTES / tileBytes();
+            int segment = (int) (index / tilesPerSegment);
+            if (segments[segment] == null) {
+                long start = segment * tilesPerSegment * tileBytes();
+                long length = Math.min(tilesPerSegment * tileBytes(), tileBytes() * tilesX * tilesY - start);
+                segments[segment] = scratch.map(FileChannel.MapMode.READ_WRITE, start, length);
+            }
+            int offset = (int) ((index % tilesPerSegment) * tileBytes());
+            return segments[segment].duplicate().position(offset).limit(offset + (int) tileBytes())
+                    .slice().asIntBuffer();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot spill tile to scratch file", e);
+        }
+    }
+
+    // RenderedImage
+
+    @Override
+    public Vector<RenderedImage> getSources() {
+        return null;
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return java.awt.Image.UndefinedProperty;
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+        return null;
+    }
+
+    @Override
+    public ColorModel getColorModel() {
+        return COLOR_MODEL;
+    }
+
+    @Override
+    public SampleModel getSampleModel() {
+        return new SinglePixelPackedSampleModel(DataBufferInt.TYPE_INT, tileSize, tileSize, MASKS);
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getMinX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinY() {
+        return 0;
+    }
+
+    @Override
+    public int getNumXTiles() {
+        return tilesX;
+    }
+
+    @Override
+    public int getNumYTiles() {
+        return tilesY;
+    }
+
+    @Override
+    public int getMinTileX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinTileY() {
+        return 0;
+    }
+
+    @Override
+    public int getTileWidth() {
+        return tileSize;
+    }
+
+    @Override
+    public int getTileHeight() {
+        return tileSize;
+    }
+
+    @Override
+    public int getTileGridXOffset() {
+        return 0;
+    }
+
+    @Override
+    public int getTileGridYOffset() {
+        return 0;
+    }
+
+    @Override
+    public Raster getTile(int tileX, int tileY) {
+        DataBufferInt buffer = new DataBufferInt(copyTile(tileX, tileY), tileSize * tileSize);
+        return Raster.createPackedRaster(buffer, tileSize, tileSize, tileSize, MASKS,
+                new Point(tileX * tileSize, tileY * tileSize));
+    }
+
+    @Override
+    public Raster getData() {
+        return getData(new Rectangle(0, 0, width, height));
+    }
+
+    @Override
+    public Raster getData(Rectangle rect) {
+        WritableRaster raster = COLOR_MODEL.createCompatibleWritableRaster(rect.width, rect.height)
+                .createWritableTranslatedChild(rect.x, rect.y);
+        return copyData(raster);
+    }
+
+    @Override
+    public WritableRaster copyData(WritableRaster raster) {
+        if (raster == null) {
+            raster = COLOR_MODEL.createCompatibleWritableRaster(width, height);
+        }
+        Rectangle bounds = raster.getBounds().intersection(new Rectangle(0, 0, width, height));
+        if (bounds.isEmpty()) {
+            return raster;
+        }
+        int[] row = new int[tileSize];
+        for (int ty = bounds.y / tileSize; ty <= (bounds.y + bounds.height - 1) / tileSize; ty++) {
+            for (int tx = bounds.x / tileSize; tx <= (bounds.x + bounds.width - 1) / tileSize; tx++) {
+                Rectangle tileRect = new Rectangle(tx * tileSize, ty * tileSize, tileWidth(tx), tileHeight(ty))
+                        .intersection(bounds);
+                int[] data;
+                synchronized (this) {
+                    data = load(index(tx, ty));
+                    for (int y = tileRect.y; y < tileRect.y + tileRect.height; y++) {
+                        System.arraycopy(data, (y - ty * tileSize) * tileSize + tileRect.x - tx * tileSize,
+                                row, 0, tileRect.width);
+                        raster.setDataElements(tileRect.x, y, tileRect.width, 1, row);
+                    }
+                }
+            }
+        }
+        return raster;
+    }
+}
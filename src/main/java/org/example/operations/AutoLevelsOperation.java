@@ -0,0 +1,63 @@
+package org.example.operations;
+
+import org.example.utils.ImageUtils;
+
+/**
+ * Автоуровни: как линейная коррекция, но каждый канал растягивается между
+ * процентилями, а не между крайними значениями, поэтому горячий пиксель
+ * не отменяет коррекцию. Гистограмма считается один раз на цепочку
+ * и сводится в таблицу вместе с соседними поканальными операциями.
+ */
+public final class AutoLevelsOperation implements PointOperation {
+    private static final Parameter CLIP = new Parameter("clip",
+            "Enter percentage clipped at each end (0-10, 0.5=default):", 0, 10, 0.5);
+
+    @Override
+    public String getId() {
+        return "autolevels";
+    }
+
+    @Override
+    public String getName() {
+        return "Auto Levels";
+    }
+
+    @Override
+    public Parameter getParameter() {
+        return CLIP;
+    }
+
+    @Override
+    public boolean needsHistogram() {
+        return true;
+    }
+
+    @Override
+    public boolean keepsGray() {
+        return true;
+    }
+
+    /**
+     * Границы - процентили: по {@code value} процентов пикселей с каждого
+     * края уходят в 0 и в максимум. Если после отсечения диапазон
+     * вырождается, растягивается полный, как у линейной коррекции.
+     */
+    @Override
+    public int[][] lookupTables(int levels, int[][] histograms, double value) {
+        int[] black = new int[3];
+        int[] white = new int[3];
+        for (int c = 0; c < 3; c++) {
+            int[] histogram = histograms[c];
+            long total = 0;
+            for (int count : histogram) total += count;
+            long clipped = (long) (total * value / 100);
+            black[c] = ImageUtils.clippedMin(histogram, clipped);
+            white[c] = ImageUtils.clippedMax(histogram, clipped);
+            if (black[c] >= white[c]) {
+                black[c] = ImageUtils.clippedMin(histogram, 0);
+                white[c] = ImageUtils.clippedMax(histogram, 0);
+            }
+        }
+        return LinearCorrectionOperation.stretchTables(levels, black, white);
+    }
+}
@@ -0,0 +1,51 @@
+package org.example.operations;
+
+import org.example.utils.AdaptiveEqualization;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Адаптивное выравнивание с ограничением контраста (CLAHE), см.
+ * {@link AdaptiveEqualization}. Результат зависит от сетки ячеек,
+ * поэтому тайлы обрабатываются с учётом своего положения, а уменьшенная
+ * копия - с ячейками в её масштабе.
+ */
+public final class ClaheOperation implements NeighborhoodOperation {
+    private static final Parameter LIMIT = new Parameter("limit",
+            "Enter contrast limit (1.0-10.0, 1.0=no change):", 1.0, 10.0, 2.0);
+
+    @Override
+    public String getId() {
+        return "clahe";
+    }
+
+    @Override
+    public String getName() {
+        return "CLAHE";
+    }
+
+    @Override
+    public Parameter getParameter() {
+        return LIMIT;
+    }
+
+    @Override
+    public int getRadius(double value) {
+        return AdaptiveEqualization.RADIUS;
+    }
+
+    @Override
+    public BufferedImage apply(BufferedImage image, double value) {
+        return apply(image, value, 0, 0);
+    }
+
+    @Override
+    public BufferedImage apply(BufferedImage image, double value, int x, int y) {
+        return AdaptiveEqualization.apply(image, value, x, y);
+    }
+
+    @Override
+    public BufferedImage applyScaled(BufferedImage image, double value, double scale) {
+        return AdaptiveEqualization.applyScaled(image, value, scale);
+    }
+}
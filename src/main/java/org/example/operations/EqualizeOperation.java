@@ -0,0 +1,42 @@
+package org.example.operations;
+
+import org.example.utils.ImageUtils;
+
+/**
+ * Выравнивание гистограммы всего изображения. Таблица строится по сумме
+ * гистограмм R, G, B и одна на все каналы, поэтому каналы не расходятся
+ * и серое остаётся серым.
+ */
+public final class EqualizeOperation implements PointOperation {
+    @Override
+    public String getId() {
+        return "equalize";
+    }
+
+    @Override
+    public String getName() {
+        return "Equalize";
+    }
+
+    @Override
+    public boolean needsHistogram() {
+        return true;
+    }
+
+    @Override
+    public boolean keepsGray() {
+        return true;
+    }
+
+    @Override
+    public int[][] lookupTables(int levels, int[][] histograms, double value) {
+        int[] combined = new int[levels];
+        for (int[] histogram : histograms) {
+            for (int i = 0; i < levels; i++) {
+                combined[i] += histogram[i];
+            }
+        }
+        int[] table = ImageUtils.equalizationTable(combined);
+        return table != null ? new int[][]{table, table, table} : null;
+    }
+}
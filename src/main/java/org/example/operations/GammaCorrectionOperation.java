@@ -0,0 +1,30 @@
+package org.example.operations;
+
+import org.example.utils.ImageUtils;
+
+/** Нелинейная (гамма) коррекция. */
+public final class GammaCorrectionOperation implements PointOperation {
+    private static final Parameter GAMMA = new Parameter("gamma",
+            "Enter gamma value (0.1-5.0, 1.0=no change):", 0.1, 5.0, 1.5);
+
+    @Override
+    public String getId() {
+        return "gamma";
+    }
+
+    @Override
+    public String getName() {
+        return "Nonlinear Correction";
+    }
+
+    @Override
+    public Parameter getParameter() {
+        return GAMMA;
+    }
+
+    @Override
+    public int[][] lookupTables(int levels, int[][] histograms, double value) {
+        int[] table = ImageUtils.gammaTable(value, levels);
+        return new int[][]{table, table, table};
+    }
+}
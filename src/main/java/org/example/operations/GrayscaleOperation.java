@@ -0,0 +1,28 @@
+package org.example.operations;
+
+import org.example.utils.ImageUtils;
+
+import java.awt.image.BufferedImage;
+
+/** Перевод в оттенки серого: смешивает каналы, поэтому не таблица, а попиксельная операция. */
+public final class GrayscaleOperation implements NeighborhoodOperation {
+    @Override
+    public String getId() {
+        return "grayscale";
+    }
+
+    @Override
+    public String getName() {
+        return "Grayscale";
+    }
+
+    @Override
+    public int getRadius(double value) {
+        return 0;
+    }
+
+    @Override
+    public BufferedImage apply(BufferedImage image, double value) {
+        return ImageUtils.convertToGrayscale(image);
+    }
+}
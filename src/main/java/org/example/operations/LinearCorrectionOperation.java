@@ -0,0 +1,59 @@
+package org.example.operations;
+
+import org.example.utils.ImageUtils;
+
+/**
+ * Линейная коррекция: диапазон значений каждого канала растягивается
+ * на всю шкалу. Серое изображение остаётся серым.
+ */
+public final class LinearCorrectionOperation implements PointOperation {
+    @Override
+    public String getId() {
+        return "linear";
+    }
+
+    @Override
+    public String getName() {
+        return "Linear Correction";
+    }
+
+    @Override
+    public boolean needsHistogram() {
+        return true;
+    }
+
+    @Override
+    public boolean keepsGray() {
+        return true;
+    }
+
+    @Override
+    public int[][] lookupTables(int levels, int[][] histograms, double value) {
+        int[] black = new int[3];
+        int[] white = new int[3];
+        for (int c = 0; c < 3; c++) {
+            black[c] = ImageUtils.clippedMin(histograms[c], 0);
+            white[c] = ImageUtils.clippedMax(histograms[c], 0);
+        }
+        return stretchTables(levels, black, white);
+    }
+
+    /**
+     * Таблицы R, G, B, растягивающие диапазон {@code [black[c], white[c]]}
+     * канала на всю шкалу; канал с вырожденным диапазоном не меняется.
+     * null - не меняется ни один канал.
+     */
+    static int[][] stretchTables(int levels, int[] black, int[] white) {
+        int[][] tables = new int[3][];
+        boolean changed = false;
+        for (int c = 0; c < 3; c++) {
+            if (black[c] < white[c]) {
+                tables[c] = ImageUtils.stretchTable(black[c], white[c], levels);
+                changed = true;
+            } else {
+                tables[c] = ImageUtils.identityTable(levels);
+            }
+        }
+        return changed ? tables : null;
+    }
+}
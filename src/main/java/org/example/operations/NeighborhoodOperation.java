@@ -0,0 +1,39 @@
+package org.example.operations;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Операция, которой для пикселя результата нужны пиксели в радиусе
+ * {@link #getRadius(double)} вокруг него. Радиус 0 - попиксельная операция,
+ * которая не сводится к поканальной таблице (например, смешивает каналы).
+ */
+public interface NeighborhoodOperation extends PixelOperation {
+    int getRadius(double value);
+
+    /**
+     * Результат того же размера, любого типа. Для тайла передаётся фрагмент
+     * с запасом в радиус со всех сторон (у краёв изображения - меньше),
+     * края фрагмента обрабатываются так же, как края изображения.
+     */
+    BufferedImage apply(BufferedImage image, double value);
+
+    /**
+     * То же для фрагмента с левым верхним углом в точке ({@code x}, {@code y})
+     * полного изображения. Нужно операциям, у которых результат зависит
+     * от положения пикселя (например, от сетки ячеек), чтобы тайлы сходились
+     * на стыках; остальным положение не нужно.
+     */
+    default BufferedImage apply(BufferedImage image, double value, int x, int y) {
+        return apply(image, value);
+    }
+
+    /**
+     * То же для уменьшенной копии полного изображения; {@code scale} - её
+     * размер в долях полного. Нужно операциям, у которых размеры в пикселях
+     * (например, ячейки) должны уменьшиться вместе с копией, чтобы она
+     * выглядела как уменьшенный полноразмерный результат.
+     */
+    default BufferedImage applyScaled(BufferedImage image, double value, double scale) {
+        return apply(image, value);
+    }
+}
@@ -0,0 +1,458 @@
+package org.example.operations;
+
+import org.example.model.HistogramData;
+import org.example.model.PlanarImage;
+import org.example.model.TiledImage;
+import org.example.utils.ColorAdjustments;
+import org.example.utils.ImageUtils;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Цепочка операций, собранная в этапы: подряд идущие {@link PointOperation}
+ * сводятся в одну таблицу на канал и применяются за один проход,
+ * {@link NeighborhoodOperation} выполняются по одной.
+ * <p>
+ * Гистограмма для операции, которой она нужна, выводится из гистограммы
+ * входа этапа через уже собранную таблицу, без прохода по промежуточному
+ * результату. Для тайловых изображений все этапы выполняются над тайлом
+ * за один проход; тайл читается с запасом, равным сумме радиусов операций
+ * с окрестностью. Если после операции с окрестностью нужна гистограмма
+ * всего изображения, она считается отдельным проходом чтения, без
+ * сохранения промежуточных тайлов.
+ */
+public final class OperationChain {
+    /** Операция со значением параметра. */
+    public static final class Step {
+        private final PixelOperation operation;
+        private final double value;
+
+        public Step(PixelOperation operation, double value) {
+            this.operation = operation;
+            this.value = value;
+        }
+
+        /** Шаг со значением параметра по умолчанию. */
+        public Step(PixelOperation operation) {
+            this(operation, operation.getParameter() != null ? operation.getParameter().getDefaultValue() : 0);
+        }
+
+        /**
+         * Коррекция ползунками как шаг цепочки: без насыщенности это таблица
+         * и сливается с соседними поканальными операциями.
+         */
+        public static Step of(ColorAdjustments adjustments) {
+            if (adjustments.isPointOperation()) {
+                return new Step(new AdjustmentsTable(adjustments), 0);
+            }
+            return new Step(new AdjustmentsPass(adjustments), 0);
+        }
+
+        public PixelOperation getOperation() { return operation; }
+        public double getValue() { return value; }
+        public String getName() { return operation.getName(); }
+    }
+
+    /** Результат и его гистограмма, если её удалось вывести без прохода по пикселям. */
+    public static final class Result {
+        private final BufferedImage image;
+        private final HistogramData histogram;
+
+        Result(BufferedImage image, HistogramData histogram) {
+            this.image = image;
+            this.histogram = histogram;
+        }
+
+        public BufferedImage getImage() { return image; }
+        public HistogramData getHistogram() { return histogram; }
+    }
+
+    private final List<Step> steps;
+    // Этапы: List<Step> поканальных операций или одиночный Step с окрестностью
+    private final List<Object> stages = new ArrayList<>();
+
+    public OperationChain(List<Step> steps) {
+        this.steps = Collections.unmodifiableList(new ArrayList<>(steps));
+        List<Step> points = null;
+        for (Step step : this.steps) {
+            if (step.operation instanceof PointOperation) {
+                if (points == null) {
+                    points = new ArrayList<>();
+                    stages.add(points);
+                }
+                points.add(step);
+            } else if (step.operation instanceof NeighborhoodOperation) {
+                stages.add(step);
+                points = null;
+            } else {
+                throw new IllegalArgumentException("Unsupported operation: " + step.getName());
+            }
+        }
+    }
+
+    public List<Step> getSteps() {
+        return steps;
+    }
+
+    public boolean isEmpty() {
+        return steps.isEmpty();
+    }
+
+    /**
+     * Примерное число проходов по изображению, для индикатора хода:
+     * по проходу на этап и на каждую гистограмму, которую нужно посчитать.
+     * Тайловое изображение обрабатывается за один проход плюс гистограммы.
+     */
+    public int estimatePasses(boolean tiled) {
+        int histograms = 0;
+        for (Object stage : stages) {
+            if (stage instanceof Step) continue;
+            @SuppressWarnings("unchecked")
+            List<Step> points = (List<Step>) stage;
+            for (Step step : points) {
+                if (((PointOperation) step.operation).needsHistogram()) {
+                    histograms++;
+                    break;
+                }
+            }
+        }
+        return (tiled ? 1 : stages.size()) + histograms;
+    }
+
+    public BufferedImage apply(BufferedImage image) {
+        return apply(image, null).getImage();
+    }
+
+    /**
+     * @param histogram гистограмма {@code image}, если известна; экономит
+     *                  проход для операций, которым нужна гистограмма
+     */
+    public Result apply(BufferedImage image, HistogramData histogram) {
+        BufferedImage current = image;
+        for (Object stage : stages) {
+            if (stage instanceof Step) {
+                Step step = (Step) stage;
+                current = ((NeighborhoodOperation) step.operation).apply(current, step.value);
+                histogram = null;
+                continue;
+            }
+            @SuppressWarnings("unchecked")
+            List<Step> points = (List<Step>) stage;
+            HistogramData known = histogram;
+            BufferedImage input = current;
+            Tables tables = compile(points, PlanarImage.levels(input), PlanarImage.isGray(input),
+                    () -> known != null ? known : ImageUtils.calculateHistogram(input));
+            current = tables.apply(current);
+            histogram = tables.remap(histogram != null ? histogram : tables.computedHistogram);
+        }
+        return new Result(current, histogram);
+    }
+
+    /**
+     * Обработка уменьшенной копии со статистикой полного изображения:
+     * таблицы операций, которым нужна гистограмма, строятся по гистограмме
+     * полноразмерного входа этапа, поэтому копия получает те же параметры
+     * (например, границы растяжения), что и полное изображение при обработке
+     * целиком. Гистограмма полного входа выводится через таблицы предыдущих
+     * этапов, а после операции с окрестностью считается отдельным проходом
+     * по полному изображению.
+     *
+     * @param full      полноразмерный вход цепочки: {@link BufferedImage} или {@link TiledImage}
+     * @param histogram его гистограмма; запрашивается, только если она нужна
+     *                  какой-то операции (у тайлового изображения это проход
+     *                  по всем тайлам), может вернуть null
+     * @return результат для копии и гистограмма полноразмерного результата,
+     *         если её удалось вывести без прохода по пикселям
+     */
+    public Result apply(BufferedImage proxy, RenderedImage full, Supplier<HistogramData> histogram) {
+        // Гистограмма полного входа текущего этапа, пока её можно вывести через таблицы
+        LazyHistogram known = new LazyHistogram(histogram);
+        int fullLevels = full instanceof BufferedImage ? PlanarImage.levels((BufferedImage) full) : 256;
+        // Серый ли полный вход этапа; известно, пока не было операций с окрестностью
+        boolean exact = true;
+        boolean gray = full instanceof BufferedImage && PlanarImage.isGray((BufferedImage) full);
+        // Этапы для полного изображения - для гистограмм после операций с окрестностью
+        List<TiledImage.FragmentOperation> pass = new ArrayList<>();
+        int halo = 0;
+        BufferedImage current = proxy;
+        double scale = (double) proxy.getWidth() / full.getWidth();
+
+        for (Object stage : stages) {
+            if (stage instanceof Step) {
+                Step step = (Step) stage;
+                NeighborhoodOperation operation = (NeighborhoodOperation) step.operation;
+                current = operation.applyScaled(current, step.value, scale);
+                pass.add((tile, x, y) -> operation.apply(tile, step.value, x, y));
+                halo += operation.getRadius(step.value);
+                known = null;
+                exact = false;
+                continue;
+            }
+            @SuppressWarnings("unchecked")
+            List<Step> points = (List<Step>) stage;
+            LazyHistogram input = known;
+            TiledImage.FragmentOperation before = sequence(new ArrayList<>(pass));
+            int beforeHalo = halo;
+            Tables rgbTables = compile(points, fullLevels, false, () -> {
+                HistogramData data = input != null ? input.get() : null;
+                return data != null ? data : histogramOf(full, before, beforeHalo);
+            });
+            // Если гистограмма нужна, её уже запросили таблицы RGB
+            HistogramData statistics = rgbTables.computedHistogram;
+            Tables grayTables = compile(points, fullLevels, true, () -> statistics);
+            pass.add((tile, x, y) -> (PlanarImage.isGray(tile) ? grayTables : rgbTables).apply(tile));
+
+            int levels = PlanarImage.levels(current);
+            boolean proxyGray = PlanarImage.isGray(current);
+            Tables proxyTables = levels == fullLevels
+                    ? (proxyGray ? grayTables : rgbTables)
+                    : compile(points, levels, proxyGray, () -> statistics.rebin(levels));
+            current = proxyTables.apply(current);
+
+            if (exact) {
+                Tables fullTables = gray ? grayTables : rgbTables;
+                known = statistics != null
+                        ? new LazyHistogram(() -> fullTables.remap(statistics)).evaluated()
+                        : input.map(fullTables::remap);
+                gray = gray && fullTables.rgb == null;
+            } else {
+                known = null;
+            }
+        }
+        return new Result(current, known != null && known.isAvailable() ? known.get() : null);
+    }
+
+    /**
+     * Гистограмма, которая считается при первом запросе. Выведенная из другой
+     * через таблицы доступна без прохода по пикселям, если доступна исходная.
+     */
+    private static final class LazyHistogram {
+        private final LazyHistogram base;
+        private Supplier<HistogramData> source;
+        private HistogramData value;
+        private boolean done;
+
+        LazyHistogram(Supplier<HistogramData> source) {
+            this(null, source);
+        }
+
+        private LazyHistogram(LazyHistogram base, Supplier<HistogramData> source) {
+            this.base = base;
+            this.source = source;
+        }
+
+        HistogramData get() {
+            if (!done) {
+                value = source != null ? source.get() : null;
+                source = null;
+                done = true;
+            }
+            return value;
+        }
+
+        LazyHistogram evaluated() {
+            get();
+            return this;
+        }
+
+        boolean isAvailable() {
+            return done || (base != null && base.isAvailable());
+        }
+
+        LazyHistogram map(UnaryOperator<HistogramData> remap) {
+            return new LazyHistogram(this, () -> remap.apply(get()));
+        }
+    }
+
+    private static HistogramData histogramOf(RenderedImage full, TiledImage.FragmentOperation operation, int halo) {
+        if (full instanceof TiledImage) {
+            return ((TiledImage) full).calculateHistogram(operation, halo);
+        }
+        return ImageUtils.calculateHistogram(operation.apply((BufferedImage) full, 0, 0));
+    }
+
+    /**
+     * Полноразмерная обработка изображения, открытого тайлами. Пустая цепочка
+     * возвращает само изображение, иначе - новое.
+     */
+    public TiledImage apply(TiledImage image) {
+        if (steps.isEmpty()) return image;
+
+        List<TiledImage.FragmentOperation> pass = new ArrayList<>();
+        int halo = 0;
+        for (Object stage : stages) {
+            if (stage instanceof Step) {
+                Step step = (Step) stage;
+                NeighborhoodOperation operation = (NeighborhoodOperation) step.operation;
+                pass.add((tile, x, y) -> operation.apply(tile, step.value, x, y));
+                halo += operation.getRadius(step.value);
+                continue;
+            }
+            @SuppressWarnings("unchecked")
+            List<Step> points = (List<Step>) stage;
+            TiledImage.FragmentOperation before = sequence(new ArrayList<>(pass));
+            int beforeHalo = halo;
+            Supplier<HistogramData> histogram = pass.isEmpty()
+                    ? image::calculateHistogram
+                    : () -> image.calculateHistogram(before, beforeHalo);
+            // Тайлы хранятся как TYPE_INT_RGB, но после перевода в серый тайл
+            // до конца прохода остаётся серым
+            Tables rgbTables = compile(points, 256, false, histogram);
+            Tables grayTables = compile(points, 256, true, () -> rgbTables.computedHistogram);
+            pass.add((tile, x, y) -> (PlanarImage.isGray(tile) ? grayTables : rgbTables).apply(tile));
+        }
+        return image.map(sequence(pass), halo);
+    }
+
+    private static TiledImage.FragmentOperation sequence(List<TiledImage.FragmentOperation> pass) {
+        return (tile, x, y) -> {
+            for (TiledImage.FragmentOperation step : pass) {
+                tile = step.apply(tile, x, y);
+            }
+            return tile;
+        };
+    }
+
+    /**
+     * Сводит поканальные операции в таблицы. Для серого входа операции,
+     * которые оставляют его серым, собираются в таблицу уровней серого;
+     * операции после первой, которая даёт RGB, - в таблицы R, G, B.
+     * Параллельно собирается таблица по значениям sRGB, через которую
+     * пересчитываются гистограммы.
+     */
+    private static Tables compile(List<Step> points, int levels, boolean gray,
+                                  Supplier<HistogramData> histogram) {
+        Tables result = new Tables(levels);
+        int[] toRgb = gray ? ImageUtils.grayToRgbTable(levels) : null;
+        int[] toGray = gray ? ImageUtils.rgbToGrayTable(levels) : null;
+        boolean grayStage = gray;
+        int[][] channels = null;
+
+        for (Step step : points) {
+            PointOperation operation = (PointOperation) step.operation;
+            int[][] input = null;
+            if (operation.needsHistogram()) {
+                if (channels == null) {
+                    HistogramData data = histogram.get();
+                    result.computedHistogram = data;
+                    channels = new int[][]{data.getRedHistogram(), data.getGreenHistogram(), data.getBlueHistogram()};
+                }
+                input = result.remapChannels(channels);
+            }
+            int[][] tables = operation.lookupTables(levels, input, step.value);
+            if (tables == null) continue;
+
+            if (grayStage && operation.keepsGray()) {
+                int[] table = tables[0];
+                int[] grayTable = new int[levels];
+                int[] rgbTable = new int[levels];
+                for (int i = 0; i < levels; i++) {
+                    grayTable[i] = toGray[table[toRgb[i]]];
+                    rgbTable[i] = toRgb[toGray[table[i]]];
+                }
+                result.gray = result.gray == null ? grayTable : then(new int[][]{result.gray}, new int[][]{grayTable})[0];
+                result.rgbValues = then(result.rgbValues, new int[][]{rgbTable, rgbTable, rgbTable});
+            } else {
+                grayStage = false;
+                result.rgb = then(result.rgb, tables);
+                result.rgbValues = then(result.rgbValues, tables);
+            }
+        }
+        return result;
+    }
+
+    // Таблицы first, затем next; first == null - тождественная
+    private static int[][] then(int[][] first, int[][] next) {
+        if (first == null) return next;
+        int[][] result = new int[next.length][first[0].length];
+        for (int c = 0; c < next.length; c++) {
+            for (int i = 0; i < result[c].length; i++) {
+                result[c][i] = next[c][first[c][i]];
+            }
+        }
+        return result;
+    }
+
+    private static final class Tables {
+        final int levels;
+        // Таблица уровней серого (только для серого входа) и затем R, G, B; null - нет
+        int[] gray;
+        int[][] rgb;
+        // Вся цепочка по значениям sRGB - для пересчёта гистограмм
+        int[][] rgbValues;
+        HistogramData computedHistogram;
+
+        Tables(int levels) {
+            this.levels = levels;
+        }
+
+        BufferedImage apply(BufferedImage image) {
+            if (gray != null) {
+                image = ImageUtils.applyGrayTable(image, gray);
+            }
+            if (rgb != null) {
+                image = ImageUtils.applyLookupTables(image, rgb[0], rgb[1], rgb[2]);
+            }
+            return image;
+        }
+
+        int[][] remapChannels(int[][] channels) {
+            if (rgbValues == null) return channels;
+            int[][] result = new int[3][levels];
+            for (int c = 0; c < 3; c++) {
+                for (int i = 0; i < levels; i++) {
+                    result[c][rgbValues[c][i]] += channels[c][i];
+                }
+            }
+            return result;
+        }
+
+        HistogramData remap(HistogramData histogram) {
+            if (histogram == null || rgbValues == null) return histogram;
+            return histogram.remap(rgbValues[0], rgbValues[1], rgbValues[2]);
+        }
+    }
+
+    // Коррекция ползунками без насыщенности
+    private static final class AdjustmentsTable implements PointOperation {
+        private final ColorAdjustments adjustments;
+
+        AdjustmentsTable(ColorAdjustments adjustments) {
+            this.adjustments = adjustments;
+        }
+
+        @Override public String getId() { return "adjustments"; }
+        @Override public String getName() { return "Adjustments"; }
+
+        @Override
+        public int[][] lookupTables(int levels, int[][] histograms, double value) {
+            if (adjustments.isIdentity()) return null;
+            int[] table = adjustments.toClampedLookupTable(levels);
+            return new int[][]{table, table, table};
+        }
+    }
+
+    // Коррекция ползунками с насыщенностью: смешивает каналы
+    private static final class AdjustmentsPass implements NeighborhoodOperation {
+        private final ColorAdjustments adjustments;
+
+        AdjustmentsPass(ColorAdjustments adjustments) {
+            this.adjustments = adjustments;
+        }
+
+        @Override public String getId() { return "adjustments"; }
+        @Override public String getName() { return "Adjustments"; }
+        @Override public int getRadius(double value) { return 0; }
+
+        @Override
+        public BufferedImage apply(BufferedImage image, double value) {
+            return adjustments.apply(image);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.example.operations;
+
+/**
+ * Операция панели инструментов и пакетной обработки. Реализации находятся
+ * через {@link java.util.ServiceLoader} по файлу
+ * {@code META-INF/services/org.example.operations.PixelOperation}, поэтому
+ * новая операция не требует правок в интерфейсе и контроллерах.
+ * <p>
+ * Операция реализует один из двух видов: {@link PointOperation} - поканальная
+ * таблица, подряд идущие такие операции сливаются в одну таблицу;
+ * {@link NeighborhoodOperation} - пиксель результата зависит от окрестности
+ * заданного радиуса, тайлы обрабатываются с запасом по краям
+ * (см. {@link OperationChain}).
+ */
+public interface PixelOperation {
+    /** Имя в списке операций пакетной обработки, например {@code gamma}. */
+    String getId();
+
+    /** Подпись кнопки и название правки в истории. */
+    String getName();
+
+    /** Числовой параметр, который спрашивается перед применением; null - без параметра. */
+    default Parameter getParameter() {
+        return null;
+    }
+
+    final class Parameter {
+        private final String name;
+        private final String prompt;
+        private final double min;
+        private final double max;
+        private final double defaultValue;
+
+        public Parameter(String name, String prompt, double min, double max, double defaultValue) {
+            this.name = name;
+            this.prompt = prompt;
+            this.min = min;
+            this.max = max;
+            this.defaultValue = defaultValue;
+        }
+
+        public String getName() { return name; }
+        public String getPrompt() { return prompt; }
+        public double getMin() { return min; }
+        public double getMax() { return max; }
+        public double getDefaultValue() { return defaultValue; }
+
+        public double clamp(double value) {
+            return Math.max(min, Math.min(max, value));
+        }
+    }
+}
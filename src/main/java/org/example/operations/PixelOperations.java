@@ -0,0 +1,55 @@
+package org.example.operations;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/** Операции, найденные через {@link ServiceLoader}, в порядке файлов регистрации. */
+public final class PixelOperations {
+    private static final List<PixelOperation> OPERATIONS = load();
+
+    private PixelOperations() {
+    }
+
+    public static List<PixelOperation> all() {
+        return OPERATIONS;
+    }
+
+    /** Операция по {@link PixelOperation#getId()} или null. */
+    public static PixelOperation find(String id) {
+        return find(OPERATIONS, id);
+    }
+
+    private static List<PixelOperation> load() {
+        List<PixelOperation> operations = new ArrayList<>();
+        ServiceLoader<PixelOperation> loader =
+                ServiceLoader.load(PixelOperation.class, PixelOperations.class.getClassLoader());
+        for (var provider : loader.stream().toList()) {
+            try {
+                PixelOperation operation = provider.get();
+                if (!(operation instanceof PointOperation) && !(operation instanceof NeighborhoodOperation)) {
+                    System.err.println("Skipping operation " + operation.getId()
+                            + ": neither a point nor a neighborhood operation");
+                    continue;
+                }
+                if (find(operations, operation.getId()) != null) {
+                    System.err.println("Skipping duplicate operation " + operation.getId());
+                    continue;
+                }
+                operations.add(operation);
+            } catch (ServiceConfigurationError e) {
+                System.err.println("Error loading operation: " + e.getMessage());
+            }
+        }
+        return Collections.unmodifiableList(operations);
+    }
+
+    private static PixelOperation find(List<PixelOperation> operations, String id) {
+        for (PixelOperation operation : operations) {
+            if (operation.getId().equals(id)) return operation;
+        }
+        return null;
+    }
+}
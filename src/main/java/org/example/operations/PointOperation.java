@@ -0,0 +1,30 @@
+package org.example.operations;
+
+/**
+ * Поканальное преобразование таблицей: значение канала результата зависит
+ * только от значения того же канала. Цепочка таких операций сводится
+ * в одну таблицу и применяется за один проход.
+ */
+public interface PointOperation extends PixelOperation {
+    /** Таблицы строятся по гистограмме входа (например, растяжение диапазона). */
+    default boolean needsHistogram() {
+        return false;
+    }
+
+    /**
+     * Серое изображение остаётся серым: таблица применяется к уровню серого
+     * через перевод в sRGB и обратно, как у getRGB. Иначе результат - RGB.
+     */
+    default boolean keepsGray() {
+        return false;
+    }
+
+    /**
+     * Таблицы каналов R, G, B на {@code levels} значений (256 или 65536),
+     * значения в пределах {@code [0, levels)}; null - операция ничего не меняет.
+     *
+     * @param histograms гистограммы R, G, B входа по {@code levels} столбцов
+     *                   или null, если {@link #needsHistogram()} == false
+     */
+    int[][] lookupTables(int levels, int[][] histograms, double value);
+}
@@ -0,0 +1,191 @@
+package org.example.utils;
+
+import org.example.model.PlanarImage;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Адаптивное выравнивание гистограммы с ограничением контраста (CLAHE).
+ * Изображение делится на ячейки {@link #CELL_SIZE} с сеткой от начала полного
+ * изображения; по гистограмме каждой ячейки строится таблица выравнивания,
+ * столбцы выше предела срезаются, а излишек раздаётся поровну. Пиксель
+ * берёт значение из таблиц четырёх ближайших ячеек с билинейными весами
+ * по расстоянию до их центров.
+ * <p>
+ * Выравнивается яркость max(R, G, B), а каналы умножаются на одно отношение,
+ * поэтому оттенок и насыщенность не меняются. Серое остаётся серым,
+ * прозрачность переносится без изменений. 16-битный и float вход сводится
+ * к 8 битам, как у таблиц на 256 значений.
+ * <p>
+ * Уменьшенная копия обрабатывается с ячейками, уменьшенными в том же масштабе:
+ * каждая её ячейка покрывает ту же часть кадра, что и у полного изображения,
+ * и копия выглядит как уменьшенный полноразмерный результат.
+ */
+public final class AdaptiveEqualization {
+    public static final int CELL_SIZE = 256;
+    // Самая дальняя ячейка, от которой зависит пиксель, заканчивается в полутора ячейках от него
+    public static final int RADIUS = CELL_SIZE * 3 / 2;
+
+    private AdaptiveEqualization() {
+    }
+
+    /**
+     * @param clipLimit предел столбца гистограммы ячейки в долях среднего:
+     *                  1 - почти без изменений, чем больше, тем сильнее контраст
+     * @param originX   положение фрагмента в полном изображении, чтобы сетка
+     *                  ячеек у тайлов совпадала; для целого изображения 0
+     */
+    public static BufferedImage apply(BufferedImage image, double clipLimit, int originX, int originY) {
+        return apply(image, clipLimit, originX, originY, CELL_SIZE);
+    }
+
+    /**
+     * То же для уменьшенной копии: {@code scale} - её размер в долях полного
+     * изображения, ячейки уменьшаются в том же масштабе.
+     */
+    public static BufferedImage applyScaled(BufferedImage image, double clipLimit, double scale) {
+        return apply(image, clipLimit, 0, 0, Math.max(1, CELL_SIZE * Math.min(1, scale)));
+    }
+
+    private static BufferedImage apply(BufferedImage image, double clipLimit, int originX, int originY,
+                                       double cellSize) {
+        PlanarImage source = PlanarImage.of(image).toByteDepth();
+        int width = source.getWidth();
+        int height = source.getHeight();
+        boolean gray = source.getChannels() == 1;
+        byte[][] planes = ImageUtils.rgbPlanes(source);
+        int[] toRgb = PixelAccess.grayToRgbTable();
+
+        // Выравниваемая яркость; у серого - значение sRGB, как его читает getRGB
+        byte[] value = new byte[width * height];
+        TileExecutor.forEachBand(width, height, (fromY, toY) -> {
+            for (int i = fromY * width; i < toY * width; i++) {
+                value[i] = gray ? (byte) toRgb[planes[0][i] & 0xFF]
+                        : (byte) Math.max(planes[0][i] & 0xFF, Math.max(planes[1][i] & 0xFF, planes[2][i] & 0xFF));
+            }
+        });
+
+        // Ячейки, которые задевает фрагмент; крайние могут быть неполными
+        int firstX = cellOf(originX, cellSize);
+        int firstY = cellOf(originY, cellSize);
+        int cellsX = cellOf(originX + width - 1, cellSize) - firstX + 1;
+        int cellsY = cellOf(originY + height - 1, cellSize) - firstY + 1;
+        int[] column = new int[width];
+        for (int x = 0; x < width; x++) {
+            column[x] = cellOf(originX + x, cellSize) - firstX;
+        }
+        // Гистограммы ячеек копятся по полосам строк
+        int[][] histograms = TileExecutor.reduceBands(width, height, TileExecutor.getParallelism() * 2,
+                () -> new int[cellsX * cellsY][256], (partial, fromY, toY) -> {
+                    for (int y = fromY; y < toY; y++) {
+                        int row = (cellOf(originY + y, cellSize) - firstY) * cellsX;
+                        for (int x = 0, i = y * width; x < width; x++, i++) {
+                            partial[row + column[x]][value[i] & 0xFF]++;
+                        }
+                    }
+                }, TileExecutor::mergeHistograms);
+        int[][] tables = new int[cellsX * cellsY][];
+        for (int cell = 0; cell < tables.length; cell++) {
+            tables[cell] = cellTable(histograms[cell], clipLimit);
+        }
+
+        // Соседние ячейки и вес правой для каждого столбца
+        int[] left = new int[width];
+        int[] right = new int[width];
+        float[] rightWeight = new float[width];
+        for (int x = 0; x < width; x++) {
+            neighbours(originX + x, cellSize, firstX, cellsX, x, left, right, rightWeight);
+        }
+
+        boolean alpha = source.hasAlpha();
+        PlanarImage result = PlanarImage.create(width, height, gray ? 1 : alpha ? 4 : 3, PlanarImage.Depth.BYTE);
+        if (alpha) {
+            System.arraycopy(source.bytePlane(3), 0, result.bytePlane(3), 0, width * height);
+        }
+        byte[][] targets = gray ? new byte[][]{result.bytePlane(0)}
+                : new byte[][]{result.bytePlane(0), result.bytePlane(1), result.bytePlane(2)};
+        byte[] toGray = PixelAccess.rgbToGrayTable();
+        TileExecutor.forEachBand(width, height, (fromY, toY) -> {
+            int[] row = new int[1];
+            int[] below = new int[1];
+            float[] belowWeight = new float[1];
+            for (int y = fromY; y < toY; y++) {
+                neighbours(originY + y, cellSize, firstY, cellsY, 0, row, below, belowWeight);
+                float wy = belowWeight[0];
+                int top = row[0] * cellsX;
+                int bottom = below[0] * cellsX;
+                for (int x = 0, i = y * width; x < width; x++, i++) {
+                    int v = value[i] & 0xFF;
+                    float wx = rightWeight[x];
+                    float upper = tables[top + left[x]][v] * (1 - wx) + tables[top + right[x]][v] * wx;
+                    float lower = tables[bottom + left[x]][v] * (1 - wx) + tables[bottom + right[x]][v] * wx;
+                    float mapped = upper * (1 - wy) + lower * wy;
+                    if (gray) {
+                        targets[0][i] = toGray[(int) (mapped + 0.5f)];
+                        continue;
+                    }
+                    // Каналы не больше v, поэтому после умножения не выходят за mapped
+                    float scale = v > 0 ? mapped / v : 0;
+                    for (int c = 0; c < 3; c++) {
+                        targets[c][i] = (byte) ((planes[c][i] & 0xFF) * scale + 0.5f);
+                    }
+                }
+            }
+        });
+        return result.toBufferedImage();
+    }
+
+    private static int cellOf(int position, double cellSize) {
+        return (int) Math.floor(position / cellSize);
+    }
+
+    // Две ближайшие по центрам ячейки для координаты; у краёв сетки - одна и та же
+    private static void neighbours(int position, double cellSize, int first, int cells, int index,
+                                   int[] lower, int[] upper, float[] upperWeight) {
+        double cell = (position + 0.5) / cellSize - 0.5 - first;
+        int below = (int) Math.floor(cell);
+        float weight = (float) (cell - below);
+        if (below < 0) {
+            below = 0;
+            weight = 0;
+        } else if (below >= cells - 1) {
+            below = cells - 1;
+            weight = 0;
+        }
+        lower[index] = below;
+        upper[index] = Math.min(below + 1, cells - 1);
+        upperWeight[index] = weight;
+    }
+
+    // Таблица выравнивания по гистограмме ячейки со срезанными столбцами
+    private static int[] cellTable(int[] histogram, double clipLimit) {
+        int pixels = 0;
+        for (int count : histogram) pixels += count;
+        if (pixels == 0) return ImageUtils.identityTable();
+        int limit = Math.max(1, (int) (clipLimit * pixels / 256));
+        int excess = 0;
+        for (int i = 0; i < 256; i++) {
+            if (histogram[i] > limit) {
+                excess += histogram[i] - limit;
+                histogram[i] = limit;
+            }
+        }
+        int bonus = excess / 256;
+        int residual = excess % 256;
+        for (int i = 0; i < 256; i++) {
+            histogram[i] += bonus;
+        }
+        // Остаток - по одному через равные промежутки шкалы
+        for (int i = 0, step = Math.max(1, 256 / Math.max(1, residual)); i < 256 && residual > 0; i += step, residual--) {
+            histogram[i]++;
+        }
+
+        int[] table = new int[256];
+        long sum = 0;
+        for (int i = 0; i < 256; i++) {
+            sum += histogram[i];
+            table[i] = (int) Math.min(255, (sum * 255 + pixels / 2) / pixels);
+        }
+        return table;
+    }
+}
@@ -0,0 +1,139 @@
+package org.example.utils;
+
+import org.example.model.HistogramData;
+import org.example.model.PlanarImage;
+import org.example.model.TiledImage;
+
+import java.awt.image.BufferedImage;
+import java.util.Objects;
+
+/**
+ * Гамма, яркость, контраст и насыщенность, применяемые за один проход.
+ * Гамма, яркость и контраст поканальные, поэтому сводятся в одну таблицу;
+ * насыщенность смешивает каналы и считается в том же цикле.
+ */
+public final class ColorAdjustments {
+    public static final ColorAdjustments NONE = new ColorAdjustments(0, 1, 1, 1.0);
+
+    private final float brightness;
+    private final float contrast;
+    private final float saturation;
+    private final double gamma;
+
+    public ColorAdjustments(float brightness, float contrast, float saturation, double gamma) {
+        this.brightness = brightness;
+        this.contrast = contrast;
+        this.saturation = saturation;
+        this.gamma = gamma;
+    }
+
+    public float getBrightness() { return brightness; }
+    public float getContrast() { return contrast; }
+    public float getSaturation() { return saturation; }
+    public double getGamma() { return gamma; }
+
+    public boolean isIdentity() {
+        return brightness == 0 && contrast == 1 && saturation == 1 && gamma == 1.0;
+    }
+
+    /** Насыщенность 1 не смешивает каналы: результат полностью описывается таблицей. */
+    public boolean isPointOperation() {
+        return saturation == 1;
+    }
+
+    public int[] toLookupTable() {
+        return toLookupTable(256);
+    }
+
+    /**
+     * Таблица гамма -> яркость -> контраст на {@code levels} значений
+     * (256 или 65536) без ограничения диапазона: значения за пределами
+     * шкалы нужны для расчёта насыщенности.
+     */
+    public int[] toLookupTable(int levels) {
+        int top = levels - 1;
+        float brightnessFactor = brightness * top;
+        float contrastOffset = levels / 2 * (1 - contrast);
+
+        int[] table = new int[levels];
+        for (int i = 0; i < levels; i++) {
+            int v = gamma != 1.0 ? (int) (top * Math.pow(i / (double) top, 1.0 / gamma)) : i;
+            v = (int) (v + brightnessFactor);
+            v = (int) (v * contrast + contrastOffset);
+            table[i] = v;
+        }
+        return table;
+    }
+
+    public int[] toClampedLookupTable() {
+        return toClampedLookupTable(256);
+    }
+
+    /** Таблица с ограничением шкалой, для чисто поканальных преобразований. */
+    public int[] toClampedLookupTable(int levels) {
+        int[] table = toLookupTable(levels);
+        for (int i = 0; i < levels; i++) {
+            table[i] = Math.max(0, Math.min(levels - 1, table[i]));
+        }
+        return table;
+    }
+
+    /** Результат той же глубины, что у входа: 8 бит, 16 бит или float. */
+    public BufferedImage apply(BufferedImage image) {
+        int levels = PlanarImage.levels(image);
+        if (isPointOperation()) {
+            int[] table = toClampedLookupTable(levels);
+            return ImageUtils.applyLookupTables(image, table, table, table);
+        }
+        if (levels != 256) {
+            return HighBitDepth.adjust(PlanarImage.of(image), toLookupTable(levels), saturation).toBufferedImage();
+        }
+
+        PlanarImage source = PlanarImage.of(image).toByteDepth();
+        int width = source.getWidth();
+        int height = source.getHeight();
+        PlanarImage result = PlanarImage.create(width, height, 3, PlanarImage.Depth.BYTE);
+
+        int[] table = source.getChannels() == 1 ? ImageUtils.forGray(toLookupTable()) : toLookupTable();
+        byte[][] planes = ImageUtils.rgbPlanes(source);
+        byte[][] target = ImageUtils.rgbPlanes(result);
+        PixelKernels kernels = PixelKernels.get();
+        TileExecutor.forEachBand(width, height, (fromY, toY) -> {
+            for (int y = fromY; y < toY; y++) {
+                kernels.adjust(planes, target, y * width, (y + 1) * width, table, saturation);
+            }
+        });
+
+        return result.toBufferedImage();
+    }
+
+    /**
+     * Гистограмма результата, выведенная из гистограммы входа по таблице;
+     * null, если так её получить нельзя (насыщенность смешивает каналы).
+     */
+    public HistogramData apply(HistogramData histogram) {
+        if (histogram == null || isIdentity()) return histogram;
+        if (!isPointOperation()) return null;
+        int[] table = toClampedLookupTable(histogram.getBins());
+        return histogram.remap(table, table, table);
+    }
+
+    /** Полноразмерная обработка изображения, открытого тайлами. */
+    public TiledImage apply(TiledImage image) {
+        return image.map(this::apply);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ColorAdjustments)) return false;
+        ColorAdjustments other = (ColorAdjustments) o;
+        return brightness == other.brightness && contrast == other.contrast
+                && saturation == other.saturation && gamma == other.gamma;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(brightness, contrast, saturation, gamma);
+    }
+}
@@ -0,0 +1,296 @@
+package org.example.utils;
+
+import org.example.model.PlanarImage;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorConvertOp;
+import java.awt.image.DataBufferUShort;
+
+/**
+ * Ядра для плоскостей 16 бит и float: таблицы на 65536 значений вместо 256.
+ * 16-битные значения - индексы таблицы напрямую; float 0..1 переводится
+ * в ту же шкалу 0..65535 с линейной интерполяцией между соседними
+ * значениями таблицы, поэтому результат остаётся float без ступенек.
+ */
+final class HighBitDepth {
+    static final int LEVELS = 1 << 16;
+    private static final int MAX = LEVELS - 1;
+    private static final float SCALE = MAX;
+
+    private HighBitDepth() {
+    }
+
+    // Серые уровни <-> sRGB с 16 битами, как их переводит ColorConvertOp
+    private static final class GrayTables {
+        static final int[] TO_RGB = new int[LEVELS];
+        static final int[] TO_GRAY = new int[LEVELS];
+
+        static {
+            BufferedImage gray = new BufferedImage(LEVELS, 1, BufferedImage.TYPE_USHORT_GRAY);
+            short[] levels = ((DataBufferUShort) gray.getRaster().getDataBuffer()).getData();
+            for (int i = 0; i < LEVELS; i++) {
+                levels[i] = (short) i;
+            }
+            PlanarImage rgb = PlanarImage.create(LEVELS, 1, 3, PlanarImage.Depth.USHORT);
+            new ColorConvertOp(null).filter(gray, rgb.toBufferedImage());
+            for (int i = 0; i < LEVELS; i++) {
+                TO_RGB[i] = rgb.shortPlane(0)[i] & 0xFFFF;
+            }
+
+            for (int c = 0; c < 3; c++) {
+                short[] plane = rgb.shortPlane(c);
+                for (int i = 0; i < LEVELS; i++) {
+                    plane[i] = (short) i;
+                }
+            }
+            new ColorConvertOp(null).filter(rgb.toBufferedImage(), gray);
+            for (int i = 0; i < LEVELS; i++) {
+                TO_GRAY[i] = levels[i] & 0xFFFF;
+            }
+        }
+    }
+
+    /** Значение sRGB для 16-битного серого уровня (аналог таблицы 8-битного getRGB). */
+    static int[] grayToRgbTable() {
+        return GrayTables.TO_RGB.clone();
+    }
+
+    /** 16-битный серый уровень для sRGB {@code (v, v, v)}. */
+    static int[] rgbToGrayTable() {
+        return GrayTables.TO_GRAY.clone();
+    }
+
+    /** Таблицы для серой плоскости: уровень сначала переводится в sRGB. */
+    private static int[][] forGray(PlanarImage source, int[][] tables) {
+        if (source.getChannels() != 1) return tables;
+        int[][] result = new int[tables.length][LEVELS];
+        for (int c = 0; c < tables.length; c++) {
+            for (int i = 0; i < LEVELS; i++) {
+                result[c][i] = tables[c][GrayTables.TO_RGB[i]];
+            }
+        }
+        return result;
+    }
+
+    /** Поканальные таблицы на 65536 значений; результат - RGB той же глубины. */
+    static PlanarImage applyLookupTables(PlanarImage source, int[][] lookupTables) {
+        int width = source.getWidth();
+        PlanarImage result = PlanarImage.create(width, source.getHeight(), 3, source.getDepth());
+        int[][] tables = forGray(source, lookupTables);
+        int sourceChannel = source.getChannels() == 1 ? 0 : -1;
+        TileExecutor.forEachBand(width, source.getHeight(), (fromY, toY) -> {
+            int from = fromY * width;
+            int to = toY * width;
+            for (int c = 0; c < 3; c++) {
+                int[] table = tables[c];
+                int channel = sourceChannel >= 0 ? sourceChannel : c;
+                if (source.getDepth() == PlanarImage.Depth.USHORT) {
+                    short[] in = source.shortPlane(channel);
+                    short[] out = result.shortPlane(c);
+                    for (int i = from; i < to; i++) {
+                        out[i] = (short) table[in[i] & 0xFFFF];
+                    }
+                } else {
+                    float[] in = source.floatPlane(channel);
+                    float[] out = result.floatPlane(c);
+                    for (int i = from; i < to; i++) {
+                        out[i] = lookup(table, in[i]) / SCALE;
+                    }
+                }
+            }
+        });
+        return result;
+    }
+
+    /** Таблица для серой плоскости без перевода в sRGB; результат тоже серый. */
+    static PlanarImage applyGrayTable(PlanarImage source, int[] table) {
+        int width = source.getWidth();
+        PlanarImage result = PlanarImage.create(width, source.getHeight(), 1, source.getDepth());
+        TileExecutor.forEachBand(width, source.getHeight(), (fromY, toY) -> {
+            if (source.getDepth() == PlanarImage.Depth.USHORT) {
+                short[] in = source.shortPlane(0);
+                short[] out = result.shortPlane(0);
+                for (int i = fromY * width; i < toY * width; i++) {
+                    out[i] = (short) table[in[i] & 0xFFFF];
+                }
+            } else {
+                float[] in = source.floatPlane(0);
+                float[] out = result.floatPlane(0);
+                for (int i = fromY * width; i < toY * width; i++) {
+                    out[i] = lookup(table, in[i]) / SCALE;
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Таблица и насыщенность (см. {@link ColorAdjustments}).
+     *
+     * @param table таблица без ограничения диапазона
+     */
+    static PlanarImage adjust(PlanarImage source, int[] table, float saturation) {
+        int width = source.getWidth();
+        PlanarImage result = PlanarImage.create(width, source.getHeight(), 3, source.getDepth());
+        int[] channelTable = forGray(source, new int[][]{table})[0];
+        int[] channels = source.getChannels() == 1 ? new int[]{0, 0, 0} : new int[]{0, 1, 2};
+        TileExecutor.forEachBand(width, source.getHeight(), (fromY, toY) -> {
+            int from = fromY * width;
+            int to = toY * width;
+            if (source.getDepth() == PlanarImage.Depth.USHORT) {
+                short[] red = source.shortPlane(channels[0]);
+                short[] green = source.shortPlane(channels[1]);
+                short[] blue = source.shortPlane(channels[2]);
+                short[] outRed = result.shortPlane(0);
+                short[] outGreen = result.shortPlane(1);
+                short[] outBlue = result.shortPlane(2);
+                for (int i = from; i < to; i++) {
+                    int r = channelTable[red[i] & 0xFFFF];
+                    int g = channelTable[green[i] & 0xFFFF];
+                    int b = channelTable[blue[i] & 0xFFFF];
+
+                    // Насыщенность
+                    float gray = (r + g + b) / 3f;
+                    outRed[i] = (short) clamp((int) (gray + saturation * (r - gray)));
+                    outGreen[i] = (short) clamp((int) (gray + saturation * (g - gray)));
+                    outBlue[i] = (short) clamp((int) (gray + saturation * (b - gray)));
+                }
+            } else {
+                float[] red = source.floatPlane(channels[0]);
+                float[] green = source.floatPlane(channels[1]);
+                float[] blue = source.floatPlane(channels[2]);
+                float[] outRed = result.floatPlane(0);
+                float[] outGreen = result.floatPlane(1);
+                float[] outBlue = result.floatPlane(2);
+                for (int i = from; i < to; i++) {
+                    float r = lookup(channelTable, red[i]);
+                    float g = lookup(channelTable, green[i]);
+                    float b = lookup(channelTable, blue[i]);
+
+                    float gray = (r + g + b) / 3f;
+                    outRed[i] = clamp(gray + saturation * (r - gray)) / SCALE;
+                    outGreen[i] = clamp(gray + saturation * (g - gray)) / SCALE;
+                    outBlue[i] = clamp(gray + saturation * (b - gray)) / SCALE;
+                }
+            }
+        });
+        return result;
+    }
+
+    /** Яркость с теми же весами, что у 8-битного {@link PixelKernels#gray}. */
+    static PlanarImage toGray(PlanarImage source) {
+        int width = source.getWidth();
+        PlanarImage result = PlanarImage.create(width, source.getHeight(), 1, source.getDepth());
+        TileExecutor.forEachBand(width, source.getHeight(), (fromY, toY) -> {
+            int from = fromY * width;
+            int to = toY * width;
+            if (source.getDepth() == PlanarImage.Depth.USHORT) {
+                short[] red = source.shortPlane(0);
+                short[] green = source.shortPlane(1);
+                short[] blue = source.shortPlane(2);
+                short[] gray = result.shortPlane(0);
+                for (int i = from; i < to; i++) {
+                    gray[i] = (short) ((77 * (red[i] & 0xFFFF) + 150 * (green[i] & 0xFFFF)
+                            + 29 * (blue[i] & 0xFFFF) + 128) >> 8);
+                }
+            } else {
+                float[] red = source.floatPlane(0);
+                float[] green = source.floatPlane(1);
+                float[] blue = source.floatPlane(2);
+                float[] gray = result.floatPlane(0);
+                for (int i = from; i < to; i++) {
+                    gray[i] = (77 * red[i] + 150 * green[i] + 29 * blue[i]) / 256f;
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Гистограммы R, G, B, яркости и флаг цветных пикселей (как у
+     * 8-битной {@code ImageUtils.calculateHistogram}) на 65536 значений.
+     */
+    static int[][] histograms(PlanarImage source) {
+        int width = source.getWidth();
+        int[] levels = source.getChannels() == 1 ? GrayTables.TO_RGB : null;
+        int[] channels = source.getChannels() == 1 ? new int[]{0, 0, 0} : new int[]{0, 1, 2};
+        return TileExecutor.reduceBands(width, source.getHeight(), TileExecutor.getParallelism() * 2,
+                () -> new int[][]{new int[LEVELS], new int[LEVELS], new int[LEVELS], new int[LEVELS], new int[1]},
+                (partial, fromY, toY) -> {
+                    int from = fromY * width;
+                    int to = toY * width;
+                    int[][] rgb = new int[3][to - from];
+                    for (int c = 0; c < 3; c++) {
+                        samples(source, channels[c], from, to, rgb[c]);
+                        if (levels != null) {
+                            for (int i = 0; i < rgb[c].length; i++) rgb[c][i] = levels[rgb[c][i]];
+                        }
+                    }
+                    int colored = 0;
+                    for (int i = 0; i < to - from; i++) {
+                        int r = rgb[0][i];
+                        int g = rgb[1][i];
+                        int b = rgb[2][i];
+
+                        partial[0][r]++;
+                        partial[1][g]++;
+                        partial[2][b]++;
+                        partial[3][(r + g + b) / 3]++;
+                        if (r != g || g != b) colored++;
+                    }
+                    partial[4][0] += colored;
+                },
+                TileExecutor::mergeHistograms);
+    }
+
+    /** Гистограмма одного канала (у серого - уровни в sRGB) на 65536 значений. */
+    static int[] channelHistogram(PlanarImage source, int channel) {
+        int width = source.getWidth();
+        int[] levels = source.getChannels() == 1 ? GrayTables.TO_RGB : null;
+        return TileExecutor.reduceBands(width, source.getHeight(), TileExecutor.getParallelism() * 2,
+                () -> new int[LEVELS],
+                (partial, fromY, toY) -> {
+                    int[] values = new int[(toY - fromY) * width];
+                    samples(source, source.getChannels() == 1 ? 0 : channel, fromY * width, toY * width, values);
+                    for (int v : values) {
+                        partial[levels != null ? levels[v] : v]++;
+                    }
+                },
+                (a, b) -> {
+                    for (int i = 0; i < LEVELS; i++) a[i] += b[i];
+                    return a;
+                });
+    }
+
+    // Значения канала [from, to) в шкале 0..65535
+    private static void samples(PlanarImage source, int channel, int from, int to, int[] target) {
+        if (source.getDepth() == PlanarImage.Depth.USHORT) {
+            short[] plane = source.shortPlane(channel);
+            for (int i = from; i < to; i++) {
+                target[i - from] = plane[i] & 0xFFFF;
+            }
+        } else {
+            float[] plane = source.floatPlane(channel);
+            for (int i = from; i < to; i++) {
+                target[i - from] = Math.round(Math.max(0f, Math.min(1f, plane[i])) * SCALE);
+            }
+        }
+    }
+
+    // Значение таблицы для float 0..1 с интерполяцией, в шкале 0..65535
+    private static float lookup(int[] table, float value) {
+        float position = Math.max(0f, Math.min(1f, value)) * SCALE;
+        int index = (int) position;
+        if (index >= MAX) return table[MAX];
+        float low = table[index];
+        return low + (table[index + 1] - low) * (position - index);
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(MAX, value));
+    }
+
+    private static float clamp(float value) {
+        return Math.max(0f, Math.min(SCALE, value));
+    }
+}
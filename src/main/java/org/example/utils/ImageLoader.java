@@ -0,0 +1,364 @@
+package org.example.utils;
+
+import org.example.model.PlanarImage;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Чтение файлов через {@link ImageReader}, а не {@code ImageIO.read}:
+ * уменьшенная копия декодируется с прореживанием без полноразмерного растра,
+ * полное чтение сообщает о прогрессе и останавливается прерыванием потока.
+ */
+public final class ImageLoader {
+    // Как часто отдавать частично прочитанную копию, мс
+    private static final long PARTIAL_INTERVAL = 100;
+
+    private ImageLoader() {
+    }
+
+    public interface ReaderTask<T> {
+        T run(ImageReader reader) throws IOException;
+    }
+
+    /** Открывает файл подходящим декодером; вход уже установлен. */
+    public static <T> T withReader(File file, ReaderTask<T> task) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            if (input == null) {
+                throw new IOException("Cannot open " + file);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                return task.run(reader);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /** Размер изображения по заголовку файла, без декодирования. */
+    public static Dimension readSize(File file) throws IOException {
+        return withReader(file, reader -> new Dimension(reader.getWidth(0), reader.getHeight(0)));
+    }
+
+    /**
+     * Уменьшенная копия не больше {@code maxWidth x maxHeight}: декодер берёт
+     * каждый n-й пиксель ({@link ImageReadParam#setSourceSubsampling}), так что
+     * память нужна только под результат. Если файл и так помещается, это
+     * полноразмерное изображение.
+     *
+     * @param partial получает копию уже прочитанной части, пока чтение идёт; может быть null
+     */
+    public static BufferedImage readPreview(File file, int maxWidth, int maxHeight,
+                                            Consumer<BufferedImage> partial) throws IOException {
+        return withReader(file, reader -> {
+            int step = subsampling(reader.getWidth(0), reader.getHeight(0), maxWidth, maxHeight);
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceSubsampling(step, step, 0, 0);
+            if (partial != null) {
+                reader.addIIOReadUpdateListener(new PartialUpdates(partial));
+            }
+            return read(reader, param, null);
+        });
+    }
+
+    /** Шаг прореживания, при котором изображение помещается в заданный размер. */
+    public static int subsampling(int width, int height, int maxWidth, int maxHeight) {
+        double ratio = Math.max((double) width / maxWidth, (double) height / maxHeight);
+        return Math.max(1, (int) Math.ceil(ratio));
+    }
+
+    /**
+     * Полное чтение; результат переводится в плоскости каналов
+     * ({@link PlanarImage}), с которыми работают операции.
+     *
+     * @param progress доля прочитанного 0..1, вызывается из потока чтения
+     */
+    public static BufferedImage read(File file, DoubleConsumer progress) throws IOException {
+        BufferedImage image = withReader(file, reader -> read(reader, reader.getDefaultReadParam(), progress));
+        return PlanarImage.of(image).toBufferedImage();
+    }
+
+    private static BufferedImage read(ImageReader reader, ImageReadParam param,
+                                      DoubleConsumer progress) throws IOException {
+        AbortOnInterrupt listener = new AbortOnInterrupt(progress);
+        reader.addIIOReadProgressListener(listener);
+        try {
+            BufferedImage image = reader.read(0, param);
+            if (listener.aborted || Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Loading cancelled");
+            }
+            return image;
+        } finally {
+            reader.removeIIOReadProgressListener(listener);
+        }
+    }
+
+    /** Получатель полос {@link #readStrips}. */
+    public interface StripSink {
+        /** @param strip строки с {@code y} по {@code y + strip.getHeight()} в типе файла */
+        void accept(BufferedImage strip, int y);
+    }
+
+    /**
+     * Чтение за один проход декодера с выдачей готовых полос по
+     * {@code stripRows} строк: декодер пишет в растр, у которого в памяти
+     * только текущая полоса, и когда он переходит к следующей, заполненная
+     * отдаётся {@code sink}. В отличие от чтения полос через
+     * {@link ImageReadParam#setSourceRegion}, JPEG и PNG не декодируются
+     * заново с начала файла для каждой полосы.
+     *
+     * @return false, если так прочитать нельзя: декодер пишет строки не по
+     *         порядку (прогрессивный JPEG, чересстрочный PNG) или растр
+     *         не описывается одним массивом; отданные полосы тогда неполные
+     */
+    public static boolean readStrips(ImageReader reader, int stripRows, StripSink sink,
+                                     DoubleConsumer progress) throws IOException {
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        ImageTypeSpecifier type = rawType(reader);
+        StripBuffer buffer;
+        BufferedImage destination;
+        try {
+            SampleModel model = type.getSampleModel(width, 1);
+            int stride = scanlineStride(model);
+            if (stride <= 0 || (long) stride * height > Integer.MAX_VALUE) return false;
+            buffer = new StripBuffer(type.getColorModel(), model, width, height, stride,
+                    Math.min(stripRows, height), sink);
+            WritableRaster raster = Raster.createWritableRaster(
+                    model.createCompatibleSampleModel(width, height), buffer, null);
+            destination = new BufferedImage(type.getColorModel(), raster,
+                    type.getColorModel().isAlphaPremultiplied(), null);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setDestination(destination);
+        try {
+            read(reader, param, progress);
+        } catch (OutOfOrderException | ClassCastException e) {
+            // ClassCastException - декодер пишет прямо в массив банка (BMP)
+            return false;
+        }
+        buffer.finish();
+        return true;
+    }
+
+    /** Чтение целиком уже открытым декодером; прерывание потока останавливает чтение. */
+    public static BufferedImage read(ImageReader reader, DoubleConsumer progress) throws IOException {
+        return read(reader, reader.getDefaultReadParam(), progress);
+    }
+
+    /** Наибольшая глубина канала в файле, бит. */
+    public static int sampleBits(ImageReader reader) throws IOException {
+        int bits = 0;
+        for (int size : rawType(reader).getSampleModel().getSampleSize()) {
+            bits = Math.max(bits, size);
+        }
+        return bits;
+    }
+
+    private static ImageTypeSpecifier rawType(ImageReader reader) throws IOException {
+        ImageTypeSpecifier type = reader.getRawImageType(0);
+        return type != null ? type : reader.getImageTypes(0).next();
+    }
+
+    // Шаг строки в элементах банка; 0 - растр другого устройства
+    private static int scanlineStride(SampleModel model) {
+        if (model instanceof ComponentSampleModel) return ((ComponentSampleModel) model).getScanlineStride();
+        if (model instanceof MultiPixelPackedSampleModel) return ((MultiPixelPackedSampleModel) model).getScanlineStride();
+        if (model instanceof SinglePixelPackedSampleModel) return ((SinglePixelPackedSampleModel) model).getScanlineStride();
+        return 0;
+    }
+
+    private static final class OutOfOrderException extends RuntimeException {
+        OutOfOrderException() {
+            super("Decoder writes rows out of order", null, false, false);
+        }
+    }
+
+    /**
+     * Буфер растра на всё изображение, из которого в памяти только окно
+     * в {@code rows} строк. Запись за окном сначала отдаёт окно получателю
+     * и сдвигает его; запись перед окном означает, что декодер идёт не по порядку.
+     */
+    private static final class StripBuffer extends DataBuffer {
+        private final ColorModel colorModel;
+        private final int width;
+        private final int height;
+        private final int stride;
+        private final int rows;
+        private final StripSink sink;
+        private final WritableRaster window;
+        private final DataBuffer data;
+        // Первая строка окна
+        private int base;
+
+        StripBuffer(ColorModel colorModel, SampleModel model, int width, int height, int stride,
+                    int rows, StripSink sink) {
+            super(model.getDataType(), stride * height, model.createDataBuffer().getNumBanks());
+            this.colorModel = colorModel;
+            this.width = width;
+            this.height = height;
+            this.stride = stride;
+            this.rows = rows;
+            this.sink = sink;
+            this.window = Raster.createWritableRaster(model.createCompatibleSampleModel(width, rows), null);
+            this.data = window.getDataBuffer();
+            if (scanlineStride(window.getSampleModel()) != stride) {
+                throw new IllegalArgumentException("Unexpected scanline stride");
+            }
+        }
+
+        // Индекс в окне; за окном - сначала сдвиг окна
+        private int slot(int i, boolean write) {
+            int row = i / stride;
+            if (row < base) {
+                if (write) throw new OutOfOrderException();
+                return -1;
+            }
+            if (row >= base + rows) {
+                if (!write) return -1;
+                while (row >= base + rows) {
+                    emit(rows);
+                }
+            }
+            return i - base * stride;
+        }
+
+        private void emit(int count) {
+            count = Math.min(count, height - base);
+            if (count <= 0) return;
+            WritableRaster strip = window.createWritableChild(0, 0, width, count, 0, 0, null);
+            sink.accept(new BufferedImage(colorModel, strip, colorModel.isAlphaPremultiplied(), null), base);
+            base += count;
+        }
+
+        void finish() {
+            emit(height - base);
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            int slot = slot(i, false);
+            return slot >= 0 ? data.getElem(bank, slot) : 0;
+        }
+
+        @Override
+        public void setElem(int bank, int i, int value) {
+            data.setElem(bank, slot(i, true), value);
+        }
+
+        @Override
+        public float getElemFloat(int bank, int i) {
+            int slot = slot(i, false);
+            return slot >= 0 ? data.getElemFloat(bank, slot) : 0;
+        }
+
+        @Override
+        public void setElemFloat(int bank, int i, float value) {
+            data.setElemFloat(bank, slot(i, true), value);
+        }
+
+        @Override
+        public double getElemDouble(int bank, int i) {
+            int slot = slot(i, false);
+            return slot >= 0 ? data.getElemDouble(bank, slot) : 0;
+        }
+
+        @Override
+        public void setElemDouble(int bank, int i, double value) {
+            data.setElemDouble(bank, slot(i, true), value);
+        }
+    }
+
+    // Прерывание потока останавливает декодер через ImageReader.abort()
+    private static final class AbortOnInterrupt implements IIOReadProgressListener {
+        private final DoubleConsumer progress;
+        volatile boolean aborted;
+
+        AbortOnInterrupt(DoubleConsumer progress) {
+            this.progress = progress;
+        }
+
+        @Override
+        public void imageProgress(ImageReader source, float percentageDone) {
+            if (Thread.currentThread().isInterrupted()) {
+                aborted = true;
+                source.abort();
+            } else if (progress != null) {
+                progress.accept(percentageDone / 100.0);
+            }
+        }
+
+        @Override
+        public void readAborted(ImageReader source) {
+            aborted = true;
+        }
+
+        @Override public void sequenceStarted(ImageReader source, int minIndex) { }
+        @Override public void sequenceComplete(ImageReader source) { }
+        @Override public void imageStarted(ImageReader source, int imageIndex) { }
+        @Override public void imageComplete(ImageReader source) { }
+        @Override public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) { }
+        @Override public void thumbnailProgress(ImageReader source, float percentageDone) { }
+        @Override public void thumbnailComplete(ImageReader source) { }
+    }
+
+    // Отдаёт копию растра по мере декодирования, не чаще PARTIAL_INTERVAL
+    private static final class PartialUpdates implements IIOReadUpdateListener {
+        private final Consumer<BufferedImage> partial;
+        private long lastUpdate = System.nanoTime();
+
+        PartialUpdates(Consumer<BufferedImage> partial) {
+            this.partial = partial;
+        }
+
+        @Override
+        public void imageUpdate(ImageReader source, BufferedImage theImage, int minX, int minY,
+                                int width, int height, int periodX, int periodY, int[] bands) {
+            long now = System.nanoTime();
+            if (now - lastUpdate < PARTIAL_INTERVAL * 1_000_000) return;
+            lastUpdate = now;
+            partial.accept(new BufferedImage(theImage.getColorModel(), theImage.copyData(null),
+                    theImage.isAlphaPremultiplied(), null));
+        }
+
+        @Override public void passStarted(ImageReader source, BufferedImage theImage, int pass, int minPass,
+                                          int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) { }
+        @Override public void passComplete(ImageReader source, BufferedImage theImage) { }
+        @Override public void thumbnailPassStarted(ImageReader source, BufferedImage theThumbnail, int pass,
+                                                   int minPass, int maxPass, int minX, int minY,
+                                                   int periodX, int periodY, int[] bands) { }
+        @Override public void thumbnailUpdate(ImageReader source, BufferedImage theThumbnail, int minX, int minY,
+                                              int width, int height, int periodX, int periodY, int[] bands) { }
+        @Override public void thumbnailPassComplete(ImageReader source, BufferedImage theThumbnail) { }
+    }
+}
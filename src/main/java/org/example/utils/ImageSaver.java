@@ -0,0 +1,346 @@
+package org.example.utils;
+
+import org.example.model.PlanarImage;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.event.IIOWriteProgressListener;
+import javax.imageio.stream.ImageOutputStreamImpl;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Запись изображений с настройками кодировщика. Файл пишется во временный
+ * рядом с целевым и переименовывается только после успешной записи, поэтому
+ * недописанный файл никогда не оказывается на месте результата.
+ */
+public final class ImageSaver {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private ImageSaver() {
+    }
+
+    /** Настройки кодировщика; для форматов без сжатия не используются. */
+    public static final class Options {
+        public static final Options DEFAULT = new Options(0.9f, false, 6);
+
+        private final float jpegQuality;
+        private final boolean progressive;
+        private final int pngCompression;
+
+        /**
+         * @param jpegQuality    качество JPEG 0..1
+         * @param progressive    прогрессивный JPEG
+         * @param pngCompression уровень сжатия PNG 0..9 (9 - меньше файл, дольше запись)
+         */
+        public Options(float jpegQuality, boolean progressive, int pngCompression) {
+            this.jpegQuality = Math.max(0, Math.min(1, jpegQuality));
+            this.progressive = progressive;
+            this.pngCompression = Math.max(0, Math.min(9, pngCompression));
+        }
+
+        public float getJpegQuality() { return jpegQuality; }
+        public boolean isProgressive() { return progressive; }
+        public int getPngCompression() { return pngCompression; }
+    }
+
+    /**
+     * Записывает изображение; прерывание потока останавливает кодировщик.
+     *
+     * @param progress доля записанного 0..1, вызывается из потока записи; может быть null
+     */
+    public static void save(RenderedImage image, File target, String format, Options options,
+                            DoubleConsumer progress) throws IOException {
+        format = format.toLowerCase(Locale.ROOT);
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        if (!writers.hasNext()) {
+            throw new IOException("Unsupported format: " + format);
+        }
+        ImageWriter writer = writers.next();
+
+        boolean jpeg = format.equals("jpg") || format.equals("jpeg");
+        if (jpeg && image.getColorModel().hasAlpha()) {
+            // JPEG не хранит прозрачность
+            image = withoutAlpha(image);
+        }
+        if (image instanceof BufferedImage) {
+            image = forEncoder((BufferedImage) image, format);
+        }
+
+        Path destination = target.toPath().toAbsolutePath();
+        Path temp = createTemp(destination);
+        AbortOnInterrupt listener = new AbortOnInterrupt(progress);
+        boolean written = false;
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                 ChannelImageOutputStream output = new ChannelImageOutputStream(channel)) {
+                writer.setOutput(output);
+                writer.addIIOWriteProgressListener(listener);
+                writer.write(null, new IIOImage(image, null, null), writeParam(writer, format, options));
+                if (listener.aborted || Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Saving cancelled");
+                }
+                output.flush();
+                channel.force(false);
+            }
+            move(temp, destination);
+            written = true;
+        } catch (IOException e) {
+            // Прерывание закрывает FileChannel, кодировщик видит это как ошибку записи
+            if (Thread.currentThread().isInterrupted() && !(e instanceof InterruptedIOException)) {
+                throw new InterruptedIOException("Saving cancelled");
+            }
+            throw e;
+        } finally {
+            writer.dispose();
+            if (!written) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * Изображение в виде, который примет кодировщик формата: 8-битные
+     * плоскости каналов упаковываются (без потерь), более глубокие
+     * оставляются только для PNG и TIFF, которые хранят 16 бит на канал.
+     * Кодировщики JDK (например, BMP) не всегда справляются с раздельными
+     * банками, хотя и заявляют поддержку.
+     */
+    public static BufferedImage forEncoder(BufferedImage image, String format) {
+        if (!PlanarImage.isPlanar(image)) {
+            return image;
+        }
+        format = format.toLowerCase(Locale.ROOT);
+        boolean deep = PlanarImage.of(image).getDepth() != PlanarImage.Depth.BYTE;
+        if (deep && (format.equals("png") || format.equals("tif") || format.equals("tiff"))) {
+            return image;
+        }
+        return ImageUtils.toPackedRgb(image);
+    }
+
+    private static ImageWriteParam writeParam(ImageWriter writer, String format, Options options) {
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        switch (format) {
+            case "jpg":
+            case "jpeg":
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(options.getJpegQuality());
+                param.setProgressiveMode(options.isProgressive()
+                        ? ImageWriteParam.MODE_DEFAULT
+                        : ImageWriteParam.MODE_DISABLED);
+                break;
+            case "png":
+                if (param.canWriteCompressed()) {
+                    // У PNG качество 1 - без сжатия, 0 - наибольшее сжатие
+                    param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                    param.setCompressionQuality(1f - options.getPngCompression() / 9f);
+                }
+                break;
+            default:
+                break;
+        }
+        return param;
+    }
+
+    private static BufferedImage withoutAlpha(RenderedImage image) {
+        BufferedImage source = image instanceof BufferedImage ? (BufferedImage) image : null;
+        if (source == null) {
+            source = new BufferedImage(image.getColorModel(), image.copyData(null),
+                    image.getColorModel().isAlphaPremultiplied(), null);
+        }
+        BufferedImage result = new BufferedImage(source.getWidth(), source.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = result.createGraphics();
+        g.drawImage(ImageUtils.toPackedRgb(source), 0, 0, null);
+        g.dispose();
+        return result;
+    }
+
+    /**
+     * Временный файл рядом с целевым с правами, какие будут у результата:
+     * у существующего файла - его права, у нового - обычные по umask.
+     * {@link Files#createTempFile} создаёт файл с правами 0600, и после
+     * переименования они достались бы результату.
+     */
+    private static Path createTemp(Path destination) throws IOException {
+        Path temp;
+        while (true) {
+            temp = destination.resolveSibling("." + destination.getFileName() + "."
+                    + Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36) + ".tmp");
+            try {
+                Files.createFile(temp);
+                break;
+            } catch (FileAlreadyExistsException e) {
+                // Имя занято: пробуем другое
+            }
+        }
+        try {
+            if (Files.exists(destination)
+                    && Files.getFileStore(temp).supportsFileAttributeView(PosixFileAttributeView.class)) {
+                Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(destination));
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            System.err.println("Cannot copy permissions of " + destination + ": " + e.getMessage());
+        }
+        return temp;
+    }
+
+    private static void move(Path temp, Path destination) throws IOException {
+        try {
+            Files.move(temp, destination, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, destination, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Прерывание потока останавливает кодировщик через ImageWriter.abort()
+    private static final class AbortOnInterrupt implements IIOWriteProgressListener {
+        private final DoubleConsumer progress;
+        volatile boolean aborted;
+
+        AbortOnInterrupt(DoubleConsumer progress) {
+            this.progress = progress;
+        }
+
+        @Override
+        public void imageProgress(ImageWriter source, float percentageDone) {
+            if (Thread.currentThread().isInterrupted()) {
+                aborted = true;
+                source.abort();
+            } else if (progress != null) {
+                progress.accept(percentageDone / 100.0);
+            }
+        }
+
+        @Override
+        public void writeAborted(ImageWriter source) {
+            aborted = true;
+        }
+
+        @Override public void imageStarted(ImageWriter source, int imageIndex) { }
+        @Override public void imageComplete(ImageWriter source) { }
+        @Override public void thumbnailStarted(ImageWriter source, int imageIndex, int thumbnailIndex) { }
+        @Override public void thumbnailProgress(ImageWriter source, float percentageDone) { }
+        @Override public void thumbnailComplete(ImageWriter source) { }
+    }
+
+    /**
+     * Поток для кодировщиков поверх {@link FileChannel} с буфером записи.
+     * В отличие от {@code ImageIO.createImageOutputStream} для произвольного
+     * потока не держит кэш всего файла: PNG возвращается назад дописать длину
+     * блока, и это делается позиционной записью прямо в файл.
+     */
+    private static final class ChannelImageOutputStream extends ImageOutputStreamImpl {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        // Позиция в файле, с которой начинается содержимое буфера
+        private long bufferStart;
+
+        ChannelImageOutputStream(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            flushBits();
+            prepareWrite();
+            if (!buffer.hasRemaining()) {
+                flushBuffer();
+                bufferStart = streamPos;
+            }
+            buffer.put((byte) b);
+            streamPos++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            flushBits();
+            prepareWrite();
+            while (len > 0) {
+                if (!buffer.hasRemaining()) {
+                    flushBuffer();
+                    bufferStart = streamPos;
+                }
+                int n = Math.min(len, buffer.remaining());
+                buffer.put(b, off, n);
+                off += n;
+                len -= n;
+                streamPos += n;
+            }
+        }
+
+        // Запись продолжает буфер, только если идёт сразу за ним
+        private void prepareWrite() throws IOException {
+            if (streamPos != bufferStart + buffer.position()) {
+                flushBuffer();
+                bufferStart = streamPos;
+            }
+        }
+
+        private void flushBuffer() throws IOException {
+            buffer.flip();
+            long position = bufferStart;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            bufferStart = position;
+            buffer.clear();
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == 1 ? b[0] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkClosed();
+            bitOffset = 0;
+            flushBuffer();
+            int n = channel.read(ByteBuffer.wrap(b, off, len), streamPos);
+            if (n > 0) {
+                streamPos += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long length() {
+            try {
+                return Math.max(channel.size(), bufferStart + buffer.position());
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushBuffer();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flushBuffer();
+            super.close();
+        }
+    }
+}
@@ -1,153 +1,621 @@
 package org.example.utils;
 
 import org.example.model.HistogramData;
+import org.example.model.PlanarImage;
 
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferInt;
-import java.util.stream.IntStream;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.Random;
 
 public class ImageUtils {
     public static BufferedImage convertToGrayscale(BufferedImage image) {
-        BufferedImage grayImage = new BufferedImage(
-                image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
-        grayImage.getGraphics().drawImage(image, 0, 0, null);
-        return grayImage;
-    }
-
-    public static HistogramData calculateHistogram(BufferedImage image) {
-        int[] red = new int[256];
-        int[] green = new int[256];
-        int[] blue = new int[256];
-        int[] gray = new int[256];
-
-        for (int y = 0; y < image.getHeight(); y++) {
-            for (int x = 0; x < image.getWidth(); x++) {
-                int rgb = image.getRGB(x, y);
-                int r = (rgb >> 16) & 0xFF;
-                int g = (rgb >> 8) & 0xFF;
-                int b = rgb & 0xFF;
-
-                red[r]++;
-                green[g]++;
-                blue[b]++;
-                gray[(r + g + b) / 3]++;
-            }
+        if (image.getColorModel().hasAlpha()) {
+            // Полупрозрачные пиксели смешиваются с чёрным фоном, как при выводе
+            BufferedImage grayImage = new BufferedImage(
+                    image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+            grayImage.getGraphics().drawImage(toPackedRgb(image), 0, 0, null);
+            return grayImage;
         }
 
-        return new HistogramData(red, green, blue, gray);
+        PlanarImage source = PlanarImage.of(image);
+        if (source.getChannels() == 1) {
+            return new BufferedImage(image.getColorModel(), image.copyData(null), false, null);
+        }
+        if (source.getDepth() != PlanarImage.Depth.BYTE) {
+            return HighBitDepth.toGray(source).toBufferedImage();
+        }
+        int width = source.getWidth();
+        int height = source.getHeight();
+        PlanarImage result = PlanarImage.create(width, height, 1, PlanarImage.Depth.BYTE);
+        byte[] gray = result.bytePlane(0);
+        // Для непрозрачных RGB результат тот же, что у drawImage
+        byte[][] planes = rgbPlanes(source);
+        PixelKernels kernels = PixelKernels.get();
+        TileExecutor.forEachBand(width, height, (fromY, toY) -> {
+            for (int y = fromY; y < toY; y++) {
+                kernels.gray(planes, y * width, (y + 1) * width, gray);
+            }
+        });
+        return result.toBufferedImage();
     }
 
-    public static BufferedImage linearCorrection(BufferedImage image) {
-        if (image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
-            return linearCorrectionGrayscale(image);
+    /**
+     * Копия для вывода через Java2D: планарное изображение переводится
+     * в TYPE_INT_RGB (TYPE_INT_ARGB с альфой, TYPE_BYTE_GRAY для серого),
+     * для него у Java2D нет быстрых циклов отрисовки и масштабирования.
+     * Остальные возвращаются как есть.
+     */
+    public static BufferedImage toPackedRgb(BufferedImage image) {
+        if (image.getType() != BufferedImage.TYPE_CUSTOM || !PlanarImage.isPlanar(image)) {
+            return image;
+        }
+        // 16 бит и float сводятся к 8 битам по плоскостям, а не через getRGB
+        PlanarImage planes = PlanarImage.of(image).toByteDepth();
+        if (planes.getChannels() == 1) {
+            return planes.toBufferedImage();
         }
-        return linearCorrectionColor(image);
+        int width = image.getWidth();
+        boolean alpha = planes.hasAlpha();
+        BufferedImage result = new BufferedImage(width, image.getHeight(),
+                alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        PixelAccess source = PixelAccess.of(planes.toBufferedImage());
+        PixelAccess target = PixelAccess.of(result);
+        TileExecutor.forEachBand(width, image.getHeight(), (fromY, toY) -> {
+            int[] row = new int[width];
+            for (int y = fromY; y < toY; y++) {
+                source.readRow(y, row);
+                target.writeRow(y, row);
+            }
+        });
+        return result;
     }
 
-    private static BufferedImage linearCorrectionGrayscale(BufferedImage image) {
+    /**
+     * Уменьшает изображение так, чтобы оно поместилось в {@code maxWidth x maxHeight},
+     * последовательными билинейными шагами не более чем в 2 раза.
+     * Если изображение уже помещается, возвращается оно само.
+     */
+    public static BufferedImage downscale(BufferedImage image, int maxWidth, int maxHeight) {
+        double scale = Math.min((double) maxWidth / image.getWidth(), (double) maxHeight / image.getHeight());
+        if (scale >= 1) {
+            return image;
+        }
+        int targetWidth = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int targetHeight = Math.max(1, (int) Math.round(image.getHeight() * scale));
+
+        int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage current = image;
         int width = image.getWidth();
         int height = image.getHeight();
-        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
-
-        int[] histogram = new int[256];
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int gray = image.getRGB(x, y) & 0xFF;
-                histogram[gray]++;
+        if (image.getType() == BufferedImage.TYPE_CUSTOM && PlanarImage.isPlanar(image)) {
+            PlanarImage planes = PlanarImage.of(image).toByteDepth();
+            if (planes.getChannels() >= 3 && width / 2 >= targetWidth && height / 2 >= targetHeight) {
+                // Первый шаг прямо из плоскостей, без упакованной копии в полный размер
+                current = halve(planes, type);
+                width = current.getWidth();
+                height = current.getHeight();
+            } else {
+                current = toPackedRgb(image);
             }
         }
+        while (width != targetWidth || height != targetHeight) {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
 
-        int min = 0;
-        while (min < 255 && histogram[min] == 0) min++;
-
-        int max = 255;
-        while (max > 0 && histogram[max] == 0) max--;
-
-        if (min != max) {
-            for (int y = 0; y < height; y++) {
-                for (int x = 0; x < width; x++) {
-                    int gray = image.getRGB(x, y) & 0xFF;
-                    int corrected = (gray - min) * 255 / (max - min);
-                    corrected = Math.max(0, Math.min(255, corrected));
-                    result.setRGB(x, y, (corrected << 16) | (corrected << 8) | corrected);
+            BufferedImage step = new BufferedImage(width, height, type);
+            Graphics2D g = step.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(current, 0, 0, width, height, null);
+            g.dispose();
+            current = step;
+        }
+
+        return current;
+    }
+
+    // Уменьшение в 2 раза средним по квадрату 2x2 - то же, что билинейная
+    // интерполяция ровно в половину размера
+    private static BufferedImage halve(PlanarImage image, int type) {
+        int sourceWidth = image.getWidth();
+        int width = sourceWidth / 2;
+        int height = image.getHeight() / 2;
+        BufferedImage result = new BufferedImage(width, height, type);
+        PixelAccess target = PixelAccess.of(result);
+        int channels = image.getChannels();
+        byte[][] planes = new byte[channels][];
+        for (int c = 0; c < channels; c++) {
+            planes[c] = image.bytePlane(c);
+        }
+        int[] shifts = {16, 8, 0, 24};
+        TileExecutor.forEachBand(width, height, (fromY, toY) -> {
+            int[] row = new int[width];
+            for (int y = fromY; y < toY; y++) {
+                Arrays.fill(row, channels == 4 ? 0 : 0xFF000000);
+                int top = 2 * y * sourceWidth;
+                int bottom = top + sourceWidth;
+                for (int c = 0; c < channels; c++) {
+                    byte[] plane = planes[c];
+                    int shift = shifts[c];
+                    for (int x = 0; x < width; x++) {
+                        int i = 2 * x;
+                        int sum = (plane[top + i] & 0xFF) + (plane[top + i + 1] & 0xFF)
+                                + (plane[bottom + i] & 0xFF) + (plane[bottom + i + 1] & 0xFF);
+                        row[x] |= ((sum + 2) >> 2) << shift;
+                    }
                 }
+                target.writeRow(y, row);
             }
-        } else {
-            result.getGraphics().drawImage(image, 0, 0, null);
+        });
+        return result;
+    }
+
+    /**
+     * Гистограмма с числом столбцов по глубине изображения: 256 для 8-битных,
+     * 65536 для 16-битных и float ({@link PlanarImage#levels(BufferedImage)}).
+     */
+    public static HistogramData calculateHistogram(BufferedImage image) {
+        if (PlanarImage.levels(image) > 256) {
+            int[][] histograms = HighBitDepth.histograms(PlanarImage.of(image));
+            return new HistogramData(histograms[0], histograms[1], histograms[2], histograms[3],
+                    histograms[4][0] == 0);
         }
+        if (PlanarImage.isPlanar(image)) {
+            return calculateHistogram(PlanarImage.of(image));
+        }
+        PixelAccess pixels = PixelAccess.of(image);
+        int width = pixels.getWidth();
+        int[][] histograms = TileExecutor.reduceBands(width, pixels.getHeight(),
+                () -> new int[][]{new int[256], new int[256], new int[256], new int[256], new int[1]},
+                (partial, fromY, toY) -> {
+                    int[] red = partial[0];
+                    int[] green = partial[1];
+                    int[] blue = partial[2];
+                    int[] gray = partial[3];
+                    int colored = 0;
+                    int[] row = new int[width];
+                    for (int y = fromY; y < toY; y++) {
+                        pixels.readRow(y, row);
+                        for (int x = 0; x < width; x++) {
+                            int rgb = row[x];
+                            int r = (rgb >> 16) & 0xFF;
+                            int g = (rgb >> 8) & 0xFF;
+                            int b = rgb & 0xFF;
 
-        return result;
+                            red[r]++;
+                            green[g]++;
+                            blue[b]++;
+                            gray[(r + g + b) / 3]++;
+                            if (r != g || g != b) colored++;
+                        }
+                    }
+                    partial[4][0] += colored;
+                },
+                TileExecutor::mergeHistograms);
+
+        return new HistogramData(histograms[0], histograms[1], histograms[2], histograms[3],
+                histograms[4][0] == 0);
     }
 
-    private static BufferedImage linearCorrectionColor(BufferedImage image) {
+    /** Гистограмма с заданным числом столбцов, например 256 для вывода на экран. */
+    public static HistogramData calculateHistogram(BufferedImage image, int bins) {
+        return calculateHistogram(image).rebin(bins);
+    }
+
+    /**
+     * Приближённая гистограмма по выборке примерно из {@code samples} пикселей
+     * для вывода на экран: изображение делится на одинаковые ячейки, из каждой
+     * берётся один случайный пиксель. Погрешность - {@link HistogramData#getError()};
+     * там, где важны крайние столбцы (минимум и максимум для {@link #linearCorrection}),
+     * нужна точная {@link #calculateHistogram(BufferedImage)}.
+     * Если пикселей не больше {@code samples}, гистограмма точная.
+     */
+    public static HistogramData sampleHistogram(BufferedImage image, int samples) {
         int width = image.getWidth();
         int height = image.getHeight();
-        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-
-        int[][] histograms = new int[3][256];
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int rgb = image.getRGB(x, y);
-                histograms[0][(rgb >> 16) & 0xFF]++; // R
-                histograms[1][(rgb >> 8) & 0xFF]++;  // G
-                histograms[2][rgb & 0xFF]++;         // B
+        if ((long) width * height <= samples) {
+            return calculateHistogram(image);
+        }
+        double cell = Math.sqrt((double) width * height / samples);
+        int columns = Math.max(1, (int) (width / cell));
+        int rows = Math.max(1, (int) (height / cell));
+
+        // Выборка собирается в изображение того же типа, дальше - обычный подсчёт
+        WritableRaster source = image.getRaster();
+        WritableRaster sample = source.createCompatibleWritableRaster(columns, rows);
+        // Постоянное зерно: для одного изображения гистограмма не меняется между вызовами
+        Random random = new Random((long) width * 31 + height);
+        Object pixel = null;
+        for (int row = 0; row < rows; row++) {
+            int fromY = (int) ((long) row * height / rows);
+            int toY = (int) ((long) (row + 1) * height / rows);
+            for (int column = 0; column < columns; column++) {
+                int fromX = (int) ((long) column * width / columns);
+                int toX = (int) ((long) (column + 1) * width / columns);
+                pixel = source.getDataElements(fromX + random.nextInt(toX - fromX),
+                        fromY + random.nextInt(toY - fromY), pixel);
+                sample.setDataElements(column, row, pixel);
             }
         }
+        HistogramData histogram = calculateHistogram(new BufferedImage(image.getColorModel(), sample,
+                image.isAlphaPremultiplied(), null));
+        // По выборке нейтральность не гарантирована
+        return new HistogramData(histogram.getRedHistogram(), histogram.getGreenHistogram(),
+                histogram.getBlueHistogram(), histogram.getGrayHistogram(), false,
+                HistogramData.samplingError((long) columns * rows));
+    }
 
-        int[] mins = new int[3];
-        int[] maxs = new int[3];
+    private static HistogramData calculateHistogram(PlanarImage image) {
+        int width = image.getWidth();
+        byte[][] planes = rgbPlanes(image);
+        // Серый читается через getRGB так же, как у TYPE_BYTE_GRAY
+        int[] levels = image.getChannels() == 1 ? PixelAccess.grayToRgbTable() : identityTable();
+        int[][] histograms = TileExecutor.reduceBands(width, image.getHeight(),
+                () -> new int[][]{new int[256], new int[256], new int[256], new int[256], new int[1]},
+                (partial, fromY, toY) -> {
+                    int[] red = partial[0];
+                    int[] green = partial[1];
+                    int[] blue = partial[2];
+                    int[] gray = partial[3];
+                    int colored = 0;
+                    for (int i = fromY * width; i < toY * width; i++) {
+                        int r = levels[planes[0][i] & 0xFF];
+                        int g = levels[planes[1][i] & 0xFF];
+                        int b = levels[planes[2][i] & 0xFF];
 
-        for (int c = 0; c < 3; c++) {
-            mins[c] = 0;
-            while (mins[c] < 255 && histograms[c][mins[c]] == 0) mins[c]++;
+                        red[r]++;
+                        green[g]++;
+                        blue[b]++;
+                        gray[(r + g + b) / 3]++;
+                        if (r != g || g != b) colored++;
+                    }
+                    partial[4][0] += colored;
+                },
+                TileExecutor::mergeHistograms);
 
-            maxs[c] = 255;
-            while (maxs[c] > 0 && histograms[c][maxs[c]] == 0) maxs[c]--;
+        return new HistogramData(histograms[0], histograms[1], histograms[2], histograms[3],
+                histograms[4][0] == 0);
+    }
+
+    public static BufferedImage linearCorrection(BufferedImage image) {
+        if (PlanarImage.isGray(image)) {
+            return linearCorrectionGrayscale(image, channelHistograms(image, 1)[0]);
         }
+        return linearCorrectionColor(image, channelHistograms(image, 3));
+    }
 
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int rgb = image.getRGB(x, y);
-                int r = (rgb >> 16) & 0xFF;
-                int g = (rgb >> 8) & 0xFF;
-                int b = rgb & 0xFF;
+    /** То же, что {@link #linearCorrection(BufferedImage)}, но по уже посчитанной гистограмме. */
+    public static BufferedImage linearCorrection(BufferedImage image, HistogramData histogram) {
+        if (histogram.getBins() != PlanarImage.levels(image)) {
+            return linearCorrection(image);
+        }
+        if (PlanarImage.isGray(image)) {
+            return linearCorrectionGrayscale(image, histogram.getBlueHistogram());
+        }
+        return linearCorrectionColor(image, new int[][]{
+                histogram.getRedHistogram(), histogram.getGreenHistogram(), histogram.getBlueHistogram()});
+    }
 
-                if (mins[0] != maxs[0]) r = (r - mins[0]) * 255 / (maxs[0] - mins[0]);
-                if (mins[1] != maxs[1]) g = (g - mins[1]) * 255 / (maxs[1] - mins[1]);
-                if (mins[2] != maxs[2]) b = (b - mins[2]) * 255 / (maxs[2] - mins[2]);
+    /**
+     * Гистограмма результата {@link #linearCorrection(BufferedImage, HistogramData)},
+     * выведенная из исходной без прохода по пикселям, или null, если это невозможно.
+     */
+    public static HistogramData linearCorrectionHistogram(BufferedImage image, HistogramData histogram) {
+        int levels = histogram.getBins();
+        if (levels != PlanarImage.levels(image)) {
+            return null;
+        }
+        if (PlanarImage.isGray(image)) {
+            int[] table = linearCorrectionTable(histogram.getBlueHistogram());
+            if (table == null) {
+                return histogram;
+            }
+            // Результат хранится серым и читается обратно через перевод в sRGB
+            int[] toRgb = grayToRgbTable(levels);
+            int[] toGray = rgbToGrayTable(levels);
+            for (int i = 0; i < levels; i++) {
+                table[i] = toRgb[toGray[table[i]]];
+            }
+            return histogram.remap(table, table, table);
+        }
 
-                r = Math.max(0, Math.min(255, r));
-                g = Math.max(0, Math.min(255, g));
-                b = Math.max(0, Math.min(255, b));
+        int[][] tables = new int[3][];
+        int[][] channels = {histogram.getRedHistogram(), histogram.getGreenHistogram(), histogram.getBlueHistogram()};
+        for (int c = 0; c < 3; c++) {
+            int[] table = linearCorrectionTable(channels[c]);
+            tables[c] = table != null ? table : identityTable(levels);
+        }
+        return histogram.remap(tables[0], tables[1], tables[2]);
+    }
 
-                result.setRGB(x, y, (r << 16) | (g << 8) | b);
+    /**
+     * Таблица растяжения диапазона [min, max] гистограммы на всю шкалу
+     * (столько значений, сколько столбцов в гистограмме), или null,
+     * если все значения одинаковы и менять нечего.
+     */
+    public static int[] linearCorrectionTable(int[] histogram) {
+        int min = clippedMin(histogram, 0);
+        int max = clippedMax(histogram, 0);
+        return min != max ? stretchTable(min, max, histogram.length) : null;
+    }
+
+    /**
+     * Нижняя граница диапазона без {@code clipped} самых тёмных пикселей:
+     * первое значение, до которого (включительно) их больше. При 0 -
+     * наименьшее значение, которое есть в изображении.
+     */
+    public static int clippedMin(int[] histogram, long clipped) {
+        int top = histogram.length - 1;
+        int min = 0;
+        long below = histogram[0];
+        while (min < top && below <= clipped) below += histogram[++min];
+        return min;
+    }
+
+    /** То же для верхней границы: без {@code clipped} самых светлых пикселей. */
+    public static int clippedMax(int[] histogram, long clipped) {
+        int max = histogram.length - 1;
+        long above = histogram[max];
+        while (max > 0 && above <= clipped) above += histogram[--max];
+        return max;
+    }
+
+    /**
+     * Таблица выравнивания гистограммы: значение переходит в долю пикселей
+     * не ярче него, так что уровни распределяются по шкале равномернее.
+     * Отсчёт от первого непустого столбца, чтобы самое тёмное значение
+     * стало 0. null - все значения одинаковы.
+     */
+    public static int[] equalizationTable(int[] histogram) {
+        long total = 0;
+        for (int count : histogram) total += count;
+        int first = 0;
+        while (first < histogram.length - 1 && histogram[first] == 0) first++;
+        long darkest = histogram[first];
+        if (total == darkest) return null;
+
+        int top = histogram.length - 1;
+        int[] table = new int[histogram.length];
+        long cumulative = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            cumulative += histogram[i];
+            table[i] = (int) Math.max(0, ((cumulative - darkest) * top + (total - darkest) / 2) / (total - darkest));
+        }
+        return table;
+    }
+
+    public static int[] gammaTable(double gamma) {
+        return gammaTable(gamma, 256);
+    }
+
+    /** Таблица гаммы на {@code levels} значений (256 или 65536). */
+    public static int[] gammaTable(double gamma, int levels) {
+        int top = levels - 1;
+        int[] lookupTable = new int[levels];
+        for (int i = 0; i < levels; i++) {
+            lookupTable[i] = (int) (top * Math.pow(i / (double) top, 1.0 / gamma));
+        }
+        return lookupTable;
+    }
+
+    // Гистограммы каналов B (channels == 1) или R, G, B (channels == 3)
+    private static int[][] channelHistograms(BufferedImage image, int channels) {
+        if (PlanarImage.levels(image) > 256) {
+            PlanarImage planar = PlanarImage.of(image);
+            int[][] histograms = new int[channels][];
+            for (int c = 0; c < channels; c++) {
+                histograms[c] = HighBitDepth.channelHistogram(planar, channels == 1 ? 2 : c);
             }
+            return histograms;
+        }
+        if (PlanarImage.isPlanar(image) || PlanarImage.isGray(image)) {
+            PlanarImage planar = PlanarImage.of(image);
+            byte[][] planes = rgbPlanes(planar);
+            int[] levels = planar.getChannels() == 1 ? PixelAccess.grayToRgbTable() : identityTable();
+            int width = planar.getWidth();
+            return TileExecutor.reduceBands(width, planar.getHeight(),
+                    () -> new int[channels][256],
+                    (partial, fromY, toY) -> {
+                        for (int c = 0; c < channels; c++) {
+                            // Один канал - это B
+                            byte[] plane = planes[channels == 1 ? 2 : c];
+                            int[] histogram = partial[c];
+                            for (int i = fromY * width; i < toY * width; i++) {
+                                histogram[levels[plane[i] & 0xFF]]++;
+                            }
+                        }
+                    },
+                    TileExecutor::mergeHistograms);
         }
+        PixelAccess pixels = PixelAccess.of(image);
+        int width = pixels.getWidth();
+        return TileExecutor.reduceBands(width, pixels.getHeight(),
+                () -> new int[channels][256],
+                (partial, fromY, toY) -> {
+                    int[] row = new int[width];
+                    for (int y = fromY; y < toY; y++) {
+                        pixels.readRow(y, row);
+                        for (int x = 0; x < width; x++) {
+                            int rgb = row[x];
+                            if (channels == 1) {
+                                partial[0][rgb & 0xFF]++;
+                            } else {
+                                partial[0][(rgb >> 16) & 0xFF]++; // R
+                                partial[1][(rgb >> 8) & 0xFF]++;  // G
+                                partial[2][rgb & 0xFF]++;         // B
+                            }
+                        }
+                    }
+                },
+                TileExecutor::mergeHistograms);
+    }
 
-        return result;
+    private static BufferedImage linearCorrectionGrayscale(BufferedImage image, int[] histogram) {
+        PlanarImage source = PlanarImage.of(image);
+        int levels = source.getLevels();
+        int[] lookupTable = linearCorrectionTable(histogram);
+        if (lookupTable == null) {
+            return new BufferedImage(image.getColorModel(), image.copyData(null), false, null);
+        }
+
+        // Уровень хранится в линейном сером пространстве, таблица - в sRGB
+        int[] toRgb = grayToRgbTable(levels);
+        int[] toGray = rgbToGrayTable(levels);
+        int[] grayTable = new int[levels];
+        for (int i = 0; i < levels; i++) {
+            grayTable[i] = toGray[lookupTable[toRgb[i]]];
+        }
+        return applyGrayTable(image, grayTable);
     }
 
-    public static BufferedImage gammaCorrection(BufferedImage image, double gamma) {
+    /**
+     * Таблица для уровней серого изображения ({@link PlanarImage#isGray(BufferedImage)})
+     * без перевода в sRGB, на {@link PlanarImage#levels(BufferedImage)} значений;
+     * результат тоже серый той же глубины.
+     */
+    public static BufferedImage applyGrayTable(BufferedImage image, int[] table) {
+        PlanarImage source = PlanarImage.of(image);
+        if (source.getChannels() != 1 || table.length != source.getLevels()) {
+            throw new IllegalArgumentException("Gray table has " + table.length + " entries for "
+                    + source.getChannels() + " channels, " + source.getLevels() + " levels");
+        }
+        if (source.getDepth() != PlanarImage.Depth.BYTE) {
+            return HighBitDepth.applyGrayTable(source, table).toBufferedImage();
+        }
+
+        byte[] plane = source.bytePlane(0);
+        PlanarImage result = PlanarImage.create(image.getWidth(), image.getHeight(), 1, PlanarImage.Depth.BYTE);
+        byte[] target = result.bytePlane(0);
         int width = image.getWidth();
-        int height = image.getHeight();
-        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        TileExecutor.forEachBand(width, image.getHeight(), (fromY, toY) -> {
+            for (int i = fromY * width; i < toY * width; i++) {
+                target[i] = (byte) table[plane[i] & 0xFF];
+            }
+        });
+        return result.toBufferedImage();
+    }
+
+    /** Значение sRGB для уровня серого, как при чтении через getRGB; {@code levels} - 256 или 65536. */
+    public static int[] grayToRgbTable(int levels) {
+        return levels == 256 ? PixelAccess.grayToRgbTable() : HighBitDepth.grayToRgbTable();
+    }
 
-        int[] lookupTable = new int[256];
+    /** Уровень серого для sRGB {@code (v, v, v)}. */
+    public static int[] rgbToGrayTable(int levels) {
+        if (levels != 256) return HighBitDepth.rgbToGrayTable();
+        byte[] bytes = PixelAccess.rgbToGrayTable();
+        int[] table = new int[256];
         for (int i = 0; i < 256; i++) {
-            lookupTable[i] = (int) (255 * Math.pow(i / 255.0, 1.0 / gamma));
+            table[i] = bytes[i] & 0xFF;
+        }
+        return table;
+    }
+
+    private static BufferedImage linearCorrectionColor(BufferedImage image, int[][] histograms) {
+        int[][] lookupTables = new int[3][];
+        for (int c = 0; c < 3; c++) {
+            int[] table = linearCorrectionTable(histograms[c]);
+            lookupTables[c] = table != null ? table : identityTable(histograms[c].length);
         }
 
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int rgb = image.getRGB(x, y);
-                int r = lookupTable[(rgb >> 16) & 0xFF];
-                int g = lookupTable[(rgb >> 8) & 0xFF];
-                int b = lookupTable[rgb & 0xFF];
+        return applyLookupTables(image, lookupTables[0], lookupTables[1], lookupTables[2]);
+    }
+
+    public static BufferedImage gammaCorrection(BufferedImage image, double gamma) {
+        int[] lookupTable = gammaTable(gamma, PlanarImage.levels(image));
+        return applyLookupTables(image, lookupTable, lookupTable, lookupTable);
+    }
+
+    /**
+     * Поканальное преобразование через таблицы, результат - планарный RGB
+     * ({@link PlanarImage}). Таблицы на 256 значений дают 8-битный результат
+     * (16-битный вход сначала сводится к 8 битам), на 65536 - результат той же
+     * глубины, что у 16-битного или float входа.
+     */
+    public static BufferedImage applyLookupTables(BufferedImage image, int[] redTable,
+                                                  int[] greenTable, int[] blueTable) {
+        if (redTable.length != 256) {
+            PlanarImage source = PlanarImage.of(image);
+            if (source.getLevels() != redTable.length) {
+                throw new IllegalArgumentException("Lookup table has " + redTable.length
+                        + " entries, image has " + source.getLevels() + " levels");
+            }
+            return HighBitDepth.applyLookupTables(source, new int[][]{redTable, greenTable, blueTable})
+                    .toBufferedImage();
+        }
+        PlanarImage source = PlanarImage.of(image).toByteDepth();
+        int width = source.getWidth();
+        int height = source.getHeight();
+        PlanarImage result = PlanarImage.create(width, height, 3, PlanarImage.Depth.BYTE);
 
-                result.setRGB(x, y, (r << 16) | (g << 8) | b);
+        byte[][] planes = rgbPlanes(source);
+        byte[][] tables = new byte[3][];
+        int[][] lookupTables = {redTable, greenTable, blueTable};
+        for (int c = 0; c < 3; c++) {
+            int[] table = source.getChannels() == 1 ? forGray(lookupTables[c]) : lookupTables[c];
+            tables[c] = new byte[256];
+            for (int i = 0; i < 256; i++) {
+                tables[c][i] = (byte) table[i];
             }
         }
+        TileExecutor.forEachBand(width, height, (fromY, toY) -> {
+            for (int c = 0; c < 3; c++) {
+                byte[] from = planes[c];
+                byte[] to = result.bytePlane(c);
+                byte[] table = tables[c];
+                for (int i = fromY * width; i < toY * width; i++) {
+                    to[i] = table[from[i] & 0xFF];
+                }
+            }
+        });
+
+        return result.toBufferedImage();
+    }
 
+    /** Плоскости R, G, B 8-битного изображения; у серого это одна и та же плоскость. */
+    static byte[][] rgbPlanes(PlanarImage image) {
+        if (image.getChannels() == 1) {
+            byte[] gray = image.bytePlane(0);
+            return new byte[][]{gray, gray, gray};
+        }
+        return new byte[][]{image.bytePlane(0), image.bytePlane(1), image.bytePlane(2)};
+    }
+
+    /**
+     * Таблица для серой плоскости: уровень сначала переводится в sRGB,
+     * как его читает getRGB у TYPE_BYTE_GRAY.
+     */
+    static int[] forGray(int[] table) {
+        int[] toRgb = PixelAccess.grayToRgbTable();
+        int[] result = new int[256];
+        for (int i = 0; i < 256; i++) {
+            result[i] = table[toRgb[i]];
+        }
         return result;
     }
-}
\ No newline at end of file
+
+    /** Растяжение диапазона [min, max] на шкалу из {@code levels} значений; min < max. */
+    public static int[] stretchTable(int min, int max, int levels) {
+        int top = levels - 1;
+        int[] table = new int[levels];
+        for (int i = 0; i < levels; i++) {
+            long corrected = (long) (i - min) * top / (max - min);
+            table[i] = (int) Math.max(0, Math.min(top, corrected));
+        }
+        return table;
+    }
+
+    public static int[] identityTable() {
+        return identityTable(256);
+    }
+
+    public static int[] identityTable(int levels) {
+        int[] table = new int[levels];
+        for (int i = 0; i < levels; i++) {
+            table[i] = i;
+        }
+        return table;
+    }
+}
@@ -0,0 +1,283 @@
+package org.example.utils;
+
+import org.example.model.PlanarImage;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+/**
+ * Построчный доступ к пикселям изображения в формате упакованного ARGB,
+ * совместимом с {@link BufferedImage#getRGB(int, int)}.
+ * Для TYPE_INT_RGB, TYPE_INT_ARGB, TYPE_3BYTE_BGR, TYPE_BYTE_GRAY и 8-битных
+ * {@link PlanarImage} данные читаются и пишутся напрямую в массивы DataBuffer,
+ * для остальных типов используется пакетный getRGB/setRGB.
+ */
+public abstract class PixelAccess {
+    private static final int[] GRAY_TO_RGB = new int[256];
+    private static final byte[] RGB_TO_GRAY = new byte[256];
+
+    static {
+        // Таблицы строятся самим JDK, чтобы результат совпадал с getRGB/setRGB
+        BufferedImage probe = new BufferedImage(256, 1, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] data = ((DataBufferByte) probe.getRaster().getDataBuffer()).getData();
+        for (int i = 0; i < 256; i++) {
+            data[i] = (byte) i;
+        }
+        for (int i = 0; i < 256; i++) {
+            GRAY_TO_RGB[i] = probe.getRGB(i, 0) & 0xFF;
+        }
+        for (int i = 0; i < 256; i++) {
+            probe.setRGB(i, 0, (i << 16) | (i << 8) | i);
+        }
+        System.arraycopy(data, 0, RGB_TO_GRAY, 0, 256);
+    }
+
+    protected final BufferedImage image;
+    protected final int width;
+    protected final int height;
+
+    protected PixelAccess(BufferedImage image) {
+        this.image = image;
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+    }
+
+    public static PixelAccess of(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+        boolean direct = raster.getParent() == null
+                && raster.getSampleModelTranslateX() == 0
+                && raster.getSampleModelTranslateY() == 0;
+        if (direct) {
+            switch (image.getType()) {
+                case BufferedImage.TYPE_INT_RGB:
+                    return new IntPacked(image, false);
+                case BufferedImage.TYPE_INT_ARGB:
+                    return new IntPacked(image, true);
+                case BufferedImage.TYPE_3BYTE_BGR:
+                    if (Arrays.equals(((ComponentSampleModel) raster.getSampleModel()).getBandOffsets(),
+                            new int[]{2, 1, 0})) {
+                        return new ThreeByteBgr(image);
+                    }
+                    break;
+                case BufferedImage.TYPE_BYTE_GRAY:
+                    return new ByteGray(image);
+                default:
+                    if (PlanarImage.isPlanar(image)) {
+                        PlanarImage planes = PlanarImage.of(image);
+                        if (planes.getDepth() == PlanarImage.Depth.BYTE && planes.getChannels() >= 3) {
+                            return new Planar(image, planes);
+                        }
+                    }
+                    break;
+            }
+        }
+        return new Generic(image);
+    }
+
+    /**
+     * Значение, которое вернёт getRGB после записи серого уровня {@code v}
+     * в TYPE_BYTE_GRAY: цветовое пространство серого линейное, поэтому
+     * сохранение и чтение не строго обратимы.
+     */
+    public static int[] grayRoundTripTable() {
+        int[] table = new int[256];
+        for (int v = 0; v < 256; v++) {
+            table[v] = GRAY_TO_RGB[RGB_TO_GRAY[v] & 0xFF];
+        }
+        return table;
+    }
+
+    /** Значение, которое getRGB возвращает для серого уровня {@code v} в TYPE_BYTE_GRAY. */
+    public static int[] grayToRgbTable() {
+        return GRAY_TO_RGB.clone();
+    }
+
+    /** Уровень TYPE_BYTE_GRAY, который запишет setRGB для серого {@code (v, v, v)}. */
+    public static byte[] rgbToGrayTable() {
+        return RGB_TO_GRAY.clone();
+    }
+
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+    public BufferedImage getImage() { return image; }
+
+    /** Читает строку {@code y} в {@code argb[0..width)}. */
+    public abstract void readRow(int y, int[] argb);
+
+    /** Записывает строку {@code y} из {@code argb[0..width)}. */
+    public abstract void writeRow(int y, int[] argb);
+
+    private static final class IntPacked extends PixelAccess {
+        private final int[] data;
+        private final int offset;
+        private final int stride;
+        private final boolean alpha;
+
+        IntPacked(BufferedImage image, boolean alpha) {
+            super(image);
+            DataBufferInt buffer = (DataBufferInt) image.getRaster().getDataBuffer();
+            this.data = buffer.getData();
+            this.offset = buffer.getOffset();
+            this.stride = ((SinglePixelPackedSampleModel) image.getSampleModel()).getScanlineStride();
+            this.alpha = alpha;
+        }
+
+        @Override
+        public void readRow(int y, int[] argb) {
+            int base = offset + y * stride;
+            if (alpha) {
+                System.arraycopy(data, base, argb, 0, width);
+            } else {
+                for (int x = 0; x < width; x++) {
+                    argb[x] = 0xFF000000 | data[base + x];
+                }
+            }
+        }
+
+        @Override
+        public void writeRow(int y, int[] argb) {
+            int base = offset + y * stride;
+            if (alpha) {
+                System.arraycopy(argb, 0, data, base, width);
+            } else {
+                for (int x = 0; x < width; x++) {
+                    data[base + x] = argb[x] & 0xFFFFFF;
+                }
+            }
+        }
+    }
+
+    private static final class ThreeByteBgr extends PixelAccess {
+        private final byte[] data;
+        private final int offset;
+        private final int stride;
+
+        ThreeByteBgr(BufferedImage image) {
+            super(image);
+            DataBufferByte buffer = (DataBufferByte) image.getRaster().getDataBuffer();
+            this.data = buffer.getData();
+            this.offset = buffer.getOffset();
+            this.stride = ((ComponentSampleModel) image.getSampleModel()).getScanlineStride();
+        }
+
+        @Override
+        public void readRow(int y, int[] argb) {
+            int i = offset + y * stride;
+            for (int x = 0; x < width; x++, i += 3) {
+                argb[x] = 0xFF000000
+                        | (data[i + 2] & 0xFF) << 16
+                        | (data[i + 1] & 0xFF) << 8
+                        | (data[i] & 0xFF);
+            }
+        }
+
+        @Override
+        public void writeRow(int y, int[] argb) {
+            int i = offset + y * stride;
+            for (int x = 0; x < width; x++, i += 3) {
+                int rgb = argb[x];
+                data[i] = (byte) rgb;
+                data[i + 1] = (byte) (rgb >> 8);
+                data[i + 2] = (byte) (rgb >> 16);
+            }
+        }
+    }
+
+    private static final class ByteGray extends PixelAccess {
+        private final byte[] data;
+        private final int offset;
+        private final int stride;
+
+        ByteGray(BufferedImage image) {
+            super(image);
+            DataBufferByte buffer = (DataBufferByte) image.getRaster().getDataBuffer();
+            this.data = buffer.getData();
+            this.offset = buffer.getOffset();
+            this.stride = ((ComponentSampleModel) image.getSampleModel()).getScanlineStride();
+        }
+
+        @Override
+        public void readRow(int y, int[] argb) {
+            int base = offset + y * stride;
+            for (int x = 0; x < width; x++) {
+                int v = GRAY_TO_RGB[data[base + x] & 0xFF];
+                argb[x] = 0xFF000000 | (v << 16) | (v << 8) | v;
+            }
+        }
+
+        @Override
+        public void writeRow(int y, int[] argb) {
+            int base = offset + y * stride;
+            for (int x = 0; x < width; x++) {
+                int rgb = argb[x];
+                int r = (rgb >> 16) & 0xFF;
+                int g = (rgb >> 8) & 0xFF;
+                int b = rgb & 0xFF;
+                if (r == g && g == b) {
+                    data[base + x] = RGB_TO_GRAY[b];
+                } else {
+                    image.setRGB(x, y, rgb);
+                }
+            }
+        }
+    }
+
+    private static final class Planar extends PixelAccess {
+        private final byte[] red;
+        private final byte[] green;
+        private final byte[] blue;
+        private final byte[] alpha;
+
+        Planar(BufferedImage image, PlanarImage planes) {
+            super(image);
+            this.red = planes.bytePlane(0);
+            this.green = planes.bytePlane(1);
+            this.blue = planes.bytePlane(2);
+            this.alpha = planes.hasAlpha() ? planes.bytePlane(3) : null;
+        }
+
+        @Override
+        public void readRow(int y, int[] argb) {
+            int base = y * width;
+            for (int x = 0; x < width; x++) {
+                int i = base + x;
+                int a = alpha != null ? alpha[i] & 0xFF : 0xFF;
+                argb[x] = a << 24 | (red[i] & 0xFF) << 16 | (green[i] & 0xFF) << 8 | (blue[i] & 0xFF);
+            }
+        }
+
+        @Override
+        public void writeRow(int y, int[] argb) {
+            int base = y * width;
+            for (int x = 0; x < width; x++) {
+                int i = base + x;
+                int rgb = argb[x];
+                red[i] = (byte) (rgb >> 16);
+                green[i] = (byte) (rgb >> 8);
+                blue[i] = (byte) rgb;
+                if (alpha != null) alpha[i] = (byte) (rgb >>> 24);
+            }
+        }
+    }
+
+    private static final class Generic extends PixelAccess {
+        Generic(BufferedImage image) {
+            super(image);
+        }
+
+        @Override
+        public void readRow(int y, int[] argb) {
+            image.getRGB(0, y, width, 1, argb, 0, width);
+        }
+
+        @Override
+        public void writeRow(int y, int[] argb) {
+            image.setRGB(0, y, width, 1, argb, 0, width);
+        }
+    }
+}
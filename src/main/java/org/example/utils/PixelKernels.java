@@ -0,0 +1,110 @@
+package org.example.utils;
+
+import org.example.model.PlanarImage;
+
+/**
+ * Ядра над 8-битными плоскостями каналов ({@link PlanarImage}) с реализацией
+ * на Vector API и скалярной; результаты совпадают до бита. Векторная выбирается при запуске с
+ * {@code --add-modules jdk.incubator.vector -Dimageconverter.vector=true},
+ * иначе (или без модуля) - скалярная. По умолчанию векторная выключена:
+ * в JDK 17 выборка по индексам и перевод float -> int не компилируются
+ * в SIMD-инструкции, и она медленнее (см. VectorKernelBenchmark).
+ */
+public abstract class PixelKernels {
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+    private static volatile PixelKernels instance =
+            select(Boolean.parseBoolean(System.getProperty("imageconverter.vector", "false")));
+
+    public static PixelKernels get() {
+        return instance;
+    }
+
+    /** Для сравнения реализаций; без модуля Vector API остаётся скалярная. */
+    public static void setVectorEnabled(boolean enabled) {
+        instance = select(enabled);
+    }
+
+    public static boolean isVectorAvailable() {
+        return ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent();
+    }
+
+    private static PixelKernels select(boolean vector) {
+        if (vector && isVectorAvailable()) {
+            try {
+                return new VectorKernels();
+            } catch (LinkageError e) {
+                System.err.println("Vector API unavailable, using scalar kernels: " + e);
+            }
+        }
+        return new Scalar();
+    }
+
+    public abstract boolean isVectorized();
+
+    /**
+     * Поканальная таблица и насыщенность (см. {@link ColorAdjustments})
+     * для элементов {@code [from, to)} плоскостей R, G, B.
+     *
+     * @param source плоскости R, G, B входа
+     * @param target плоскости R, G, B результата
+     * @param table  таблица без ограничения диапазона
+     */
+    public abstract void adjust(byte[][] source, byte[][] target, int from, int to,
+                                int[] table, float saturation);
+
+    /**
+     * Яркость {@code (77 R + 150 G + 29 B + 128) >> 8} - так же считает Java2D
+     * при выводе RGB в TYPE_BYTE_GRAY.
+     */
+    public abstract void gray(byte[][] source, int from, int to, byte[] gray);
+
+    static void scalarAdjust(byte[][] source, byte[][] target, int from, int to,
+                             int[] table, float saturation) {
+        byte[] red = source[0];
+        byte[] green = source[1];
+        byte[] blue = source[2];
+        for (int i = from; i < to; i++) {
+            int r = table[red[i] & 0xFF];
+            int g = table[green[i] & 0xFF];
+            int b = table[blue[i] & 0xFF];
+
+            // Насыщенность
+            float gray = (r + g + b) / 3f;
+            target[0][i] = (byte) clamp((int) (gray + saturation * (r - gray)));
+            target[1][i] = (byte) clamp((int) (gray + saturation * (g - gray)));
+            target[2][i] = (byte) clamp((int) (gray + saturation * (b - gray)));
+        }
+    }
+
+    static void scalarGray(byte[][] source, int from, int to, byte[] gray) {
+        byte[] red = source[0];
+        byte[] green = source[1];
+        byte[] blue = source[2];
+        for (int i = from; i < to; i++) {
+            gray[i] = (byte) ((77 * (red[i] & 0xFF) + 150 * (green[i] & 0xFF) + 29 * (blue[i] & 0xFF) + 128) >> 8);
+        }
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+
+    private static final class Scalar extends PixelKernels {
+        @Override
+        public boolean isVectorized() {
+            return false;
+        }
+
+        @Override
+        public void adjust(byte[][] source, byte[][] target, int from, int to,
+                           int[] table, float saturation) {
+            scalarAdjust(source, target, from, to, table, saturation);
+        }
+
+        @Override
+        public void gray(byte[][] source, int from, int to, byte[] gray) {
+            scalarGray(source, from, to, gray);
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package org.example.utils;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+
+/**
+ * Параллельное выполнение попиксельных операций по полосам строк или тайлам.
+ * Изображения меньше порога обрабатываются в вызывающем потоке.
+ * Настройки по умолчанию: системные свойства {@code imageconverter.parallelism}
+ * и {@code imageconverter.parallelThreshold} (в пикселях).
+ * <p>
+ * Для длительных задач ход и отмена отслеживаются через {@link #track}:
+ * каждая полоса или тайл, запущенные из отслеживаемого потока, сообщают
+ * число обработанных пикселей и перед началом проверяют отмену.
+ */
+public final class TileExecutor {
+    private static volatile Pool pool = new Pool(createPool(
+            Integer.getInteger("imageconverter.parallelism", Runtime.getRuntime().availableProcessors())));
+    private static volatile int sequentialThreshold =
+            Integer.getInteger("imageconverter.parallelThreshold", 1 << 16);
+
+    @FunctionalInterface
+    public interface BandTask {
+        void run(int fromY, int toY);
+    }
+
+    @FunctionalInterface
+    public interface TileTask {
+        void run(int fromX, int fromY, int toX, int toY);
+    }
+
+    @FunctionalInterface
+    public interface BandReducer<T> {
+        void accumulate(T partial, int fromY, int toY);
+    }
+
+    /** Ход задачи; методы вызываются из потоков пула. */
+    public interface Progress {
+        void advance(long pixels);
+
+        boolean isCancelled();
+    }
+
+    // Задан только в потоке, который запускает отслеживаемую задачу; вложенные
+    // вызовы из потоков пула не отслеживаются, их учитывает внешняя полоса или тайл
+    private static final ThreadLocal<Progress> PROGRESS = new ThreadLocal<>();
+
+    private TileExecutor() {
+    }
+
+    /**
+     * Выполняет {@code work} в текущем потоке, сообщая {@code progress} о каждой
+     * обработанной полосе или тайле. Если задача отменена, следующая полоса
+     * не начинается, а вызов завершается {@link CancellationException}.
+     */
+    public static <T> T track(Progress progress, Supplier<T> work) {
+        Progress previous = PROGRESS.get();
+        PROGRESS.set(progress);
+        try {
+            return work.get();
+        } finally {
+            PROGRESS.set(previous);
+        }
+    }
+
+    private static void checkCancelled(Progress progress) {
+        if (progress != null && progress.isCancelled()) {
+            throw new CancellationException("Processing cancelled");
+        }
+    }
+
+    private static BandTask tracked(BandTask task, int width) {
+        Progress progress = PROGRESS.get();
+        if (progress == null) return task;
+        return (fromY, toY) -> {
+            checkCancelled(progress);
+            untracked(() -> task.run(fromY, toY));
+            progress.advance((long) (toY - fromY) * width);
+        };
+    }
+
+    private static <T> BandReducer<T> tracked(BandReducer<T> reducer, int width) {
+        Progress progress = PROGRESS.get();
+        if (progress == null) return reducer;
+        return (partial, fromY, toY) -> {
+            checkCancelled(progress);
+            untracked(() -> reducer.accumulate(partial, fromY, toY));
+            progress.advance((long) (toY - fromY) * width);
+        };
+    }
+
+    // Полоса может выполняться в отслеживаемом потоке: её вложенные вызовы не считаются
+    private static void untracked(Runnable work) {
+        Progress progress = PROGRESS.get();
+        if (progress == null) {
+            work.run();
+            return;
+        }
+        PROGRESS.remove();
+        try {
+            work.run();
+        } finally {
+            PROGRESS.set(progress);
+        }
+    }
+
+    public static int getParallelism() {
+        return pool.executor.getParallelism();
+    }
+
+    public static synchronized void setParallelism(int parallelism) {
+        Pool old = pool;
+        pool = new Pool(createPool(parallelism));
+        // Задачи, уже запущенные в прежнем пуле, доработают в нём; остановит его последняя
+        old.retired = true;
+        if (old.active.get() == 0) {
+            old.executor.shutdown();
+        }
+    }
+
+    public static int getSequentialThreshold() {
+        return sequentialThreshold;
+    }
+
+    public static void setSequentialThreshold(int pixels) {
+        sequentialThreshold = Math.max(1, pixels);
+    }
+
+    /** Вызывает {@code task} для непересекающихся полос строк, покрывающих {@code [0, height)}. */
+    public static void forEachBand(int width, int height, BandTask task) {
+        task = tracked(task, width);
+        int bandRows = bandRows(width);
+        if (height <= bandRows || getParallelism() == 1) {
+            task.run(0, height);
+            return;
+        }
+        invoke(new BandAction(task, 0, height, bandRows));
+    }
+
+    /**
+     * Вызывает {@code task} для тайлов {@code tileSize x tileSize}. Подходит для
+     * операций с окрестностью: тайл читает исходник с нужным запасом сам.
+     */
+    public static void forEachTile(int width, int height, int tileSize, TileTask task) {
+        int tilesX = (width + tileSize - 1) / tileSize;
+        int tilesY = (height + tileSize - 1) / tileSize;
+        Progress progress = PROGRESS.get();
+        BandTask rows = (fromTile, toTile) -> {
+            for (int ty = fromTile; ty < toTile; ty++) {
+                for (int tx = 0; tx < tilesX; tx++) {
+                    checkCancelled(progress);
+                    int x0 = tx * tileSize;
+                    int y0 = ty * tileSize;
+                    int x1 = Math.min(width, x0 + tileSize);
+                    int y1 = Math.min(height, y0 + tileSize);
+                    untracked(() -> task.run(x0, y0, x1, y1));
+                    if (progress != null) {
+                        progress.advance((long) (x1 - x0) * (y1 - y0));
+                    }
+                }
+            }
+        };
+        if ((long) width * height <= sequentialThreshold || getParallelism() == 1) {
+            rows.run(0, tilesY);
+            return;
+        }
+        invoke(new BandAction(rows, 0, tilesY, 1));
+    }
+
+    /**
+     * Свёртка по полосам: каждая полоса копит результат в собственном
+     * {@code identity.get()}, частичные результаты объединяются {@code combiner}.
+     */
+    public static <T> T reduceBands(int width, int height, Supplier<T> identity,
+                                    BandReducer<T> reducer, BinaryOperator<T> combiner) {
+        reducer = tracked(reducer, width);
+        int bandRows = bandRows(width);
+        if (height <= bandRows || getParallelism() == 1) {
+            T result = identity.get();
+            reducer.accumulate(result, 0, height);
+            return result;
+        }
+        return invoke(new BandReduceTask<>(identity, reducer, combiner, 0, height, bandRows));
+    }
+
+    /**
+     * То же, что {@link #reduceBands(int, int, Supplier, BandReducer, BinaryOperator)},
+     * но не больше {@code maxBands} частичных результатов - для крупных
+     * накопителей вроде гистограмм на 65536 значений.
+     */
+    public static <T> T reduceBands(int width, int height, int maxBands, Supplier<T> identity,
+                                    BandReducer<T> reducer, BinaryOperator<T> combiner) {
+        reducer = tracked(reducer, width);
+        int bandRows = Math.max(bandRows(width), (height + maxBands - 1) / Math.max(1, maxBands));
+        if (height <= bandRows || getParallelism() == 1) {
+            T result = identity.get();
+            reducer.accumulate(result, 0, height);
+            return result;
+        }
+        return invoke(new BandReduceTask<>(identity, reducer, combiner, 0, height, bandRows));
+    }
+
+    /** Поэлементное сложение частичных гистограмм. */
+    public static int[][] mergeHistograms(int[][] a, int[][] b) {
+        for (int c = 0; c < a.length; c++) {
+            for (int i = 0; i < a[c].length; i++) {
+                a[c][i] += b[c][i];
+            }
+        }
+        return a;
+    }
+
+    private static int bandRows(int width) {
+        return Math.max(1, sequentialThreshold / Math.max(1, width));
+    }
+
+    // Выполнение в текущем пуле; смена пула на время вызова его не останавливает
+    private static <T> T invoke(ForkJoinTask<T> task) {
+        Pool current = acquire();
+        try {
+            return current.executor.invoke(task);
+        } finally {
+            release(current);
+        }
+    }
+
+    private static Pool acquire() {
+        while (true) {
+            Pool current = pool;
+            current.active.incrementAndGet();
+            if (!current.retired) return current;
+            // Пул успели заменить: берём новый
+            release(current);
+        }
+    }
+
+    private static void release(Pool used) {
+        if (used.active.decrementAndGet() == 0 && used.retired) {
+            used.executor.shutdown();
+        }
+    }
+
+    private static final class Pool {
+        final ForkJoinPool executor;
+        // Вызовы, которые выполняются в этом пуле
+        final AtomicInteger active = new AtomicInteger();
+        volatile boolean retired;
+
+        Pool(ForkJoinPool executor) {
+            this.executor = executor;
+        }
+    }
+
+    private static ForkJoinPool createPool(int parallelism) {
+        return new ForkJoinPool(Math.max(1, parallelism), pool -> {
+            var thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("image-worker-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+    }
+
+    private static final class BandAction extends RecursiveAction {
+        private final BandTask task;
+        private final int from;
+        private final int to;
+        private final int bandRows;
+
+        BandAction(BandTask task, int from, int to, int bandRows) {
+            this.task = task;
+            this.from = from;
+            this.to = to;
+            this.bandRows = bandRows;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= bandRows) {
+                task.run(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new BandAction(task, from, mid, bandRows), new BandAction(task, mid, to, bandRows));
+        }
+    }
+
+    private static final class BandReduceTask<T> extends RecursiveTask<T> {
+        private final Supplier<T> identity;
+        private final BandReducer<T> reducer;
+        private final BinaryOperator<T> combiner;
+        private final int from;
+        private final int to;
+        private final int bandRows;
+
+        BandReduceTask(Supplier<T> identity, BandReducer<T> reducer, BinaryOperator<T> combiner,
+                       int from, int to, int bandRows) {
+            this.identity = identity;
+            this.reducer = reducer;
+            this.combiner = combiner;
+            this.from = from;
+            this.to = to;
+            this.bandRows = bandRows;
+        }
+
+        @Override
+        protected T compute() {
+            if (to - from <= bandRows) {
+                T partial = identity.get();
+                reducer.accumulate(partial, from, to);
+                return partial;
+            }
+            int mid = (from + to) >>> 1;
+            BandReduceTask<T> left = new BandReduceTask<>(identity, reducer, combiner, from, mid, bandRows);
+            BandReduceTask<T> right = new BandReduceTask<>(identity, reducer, combiner, mid, to, bandRows);
+            left.fork();
+            T rightResult = right.compute();
+            return combiner.apply(left.join(), rightResult);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package org.example.utils;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link PixelKernels} на Vector API. Байты каналов расширяются до int,
+ * таблица читается выборкой по индексам, остальная арифметика идёт
+ * во float-дорожках в том же порядке операций, что и скалярная версия.
+ * Загружается, только если модуль {@code jdk.incubator.vector} есть в JVM.
+ */
+final class VectorKernels extends PixelKernels {
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float> FLOATS = VectorSpecies.of(float.class, INTS.vectorShape());
+
+    // Расширенные плоскости R, G, B для участка, по одному набору на поток
+    private static final ThreadLocal<int[][]> PLANES = ThreadLocal.withInitial(() -> new int[3][0]);
+
+    @Override
+    public boolean isVectorized() {
+        return true;
+    }
+
+    @Override
+    public void adjust(byte[][] source, byte[][] target, int from, int to, int[] table, float saturation) {
+        int length = to - from;
+        int[][] planes = widen(source, from, length);
+        int[] red = planes[0];
+        int[] green = planes[1];
+        int[] blue = planes[2];
+        int bound = INTS.loopBound(length);
+
+        for (int x = 0; x < bound; x += INTS.length()) {
+            IntVector r = IntVector.fromArray(INTS, table, 0, red, x);
+            IntVector g = IntVector.fromArray(INTS, table, 0, green, x);
+            IntVector b = IntVector.fromArray(INTS, table, 0, blue, x);
+
+            FloatVector gray = ((FloatVector) r.add(g).add(b).convertShape(VectorOperators.I2F, FLOATS, 0)).div(3f);
+            saturate(r, gray, saturation).intoArray(red, x);
+            saturate(g, gray, saturation).intoArray(green, x);
+            saturate(b, gray, saturation).intoArray(blue, x);
+        }
+        narrow(planes, target, from, bound);
+        scalarAdjust(source, target, from + bound, to, table, saturation);
+    }
+
+    // clamp((int) (gray + saturation * (c - gray)))
+    private static IntVector saturate(IntVector channel, FloatVector gray, float saturation) {
+        FloatVector c = (FloatVector) channel.convertShape(VectorOperators.I2F, FLOATS, 0);
+        FloatVector v = gray.add(c.sub(gray).mul(saturation));
+        return ((IntVector) v.convertShape(VectorOperators.F2I, INTS, 0)).max(0).min(255);
+    }
+
+    @Override
+    public void gray(byte[][] source, int from, int to, byte[] gray) {
+        int length = to - from;
+        int[][] planes = widen(source, from, length);
+        int bound = INTS.loopBound(length);
+        for (int x = 0; x < bound; x += INTS.length()) {
+            IntVector r = IntVector.fromArray(INTS, planes[0], x);
+            IntVector g = IntVector.fromArray(INTS, planes[1], x);
+            IntVector b = IntVector.fromArray(INTS, planes[2], x);
+            r.mul(77).add(g.mul(150)).add(b.mul(29)).add(128)
+                    .lanewise(VectorOperators.LSHR, 8)
+                    .intoArray(planes[0], x);
+        }
+        for (int x = 0; x < bound; x++) {
+            gray[from + x] = (byte) planes[0][x];
+        }
+        scalarGray(source, from + bound, to, gray);
+    }
+
+    // Байты каналов в int-дорожки: в JDK 17 B2I через convertShape медленнее скалярного цикла
+    private static int[][] widen(byte[][] source, int from, int length) {
+        int[][] planes = planes(length);
+        for (int c = 0; c < 3; c++) {
+            byte[] plane = source[c];
+            int[] wide = planes[c];
+            for (int x = 0; x < length; x++) {
+                wide[x] = plane[from + x] & 0xFF;
+            }
+        }
+        return planes;
+    }
+
+    private static void narrow(int[][] planes, byte[][] target, int from, int length) {
+        for (int c = 0; c < 3; c++) {
+            int[] wide = planes[c];
+            byte[] plane = target[c];
+            for (int x = 0; x < length; x++) {
+                plane[from + x] = (byte) wide[x];
+            }
+        }
+    }
+
+    private static int[][] planes(int length) {
+        int[][] planes = PLANES.get();
+        if (planes[0].length < length) {
+            planes = new int[][]{new int[length], new int[length], new int[length]};
+            PLANES.set(planes);
+        }
+        return planes;
+    }
+}
@@ -2,7 +2,6 @@ package org.example.view;
 
 import org.example.model.HistogramData;
 import org.example.model.ImageModel;
-import org.example.utils.ImageUtils;
 
 import java.awt.Color;
 import java.awt.Graphics;
@@ -24,12 +23,16 @@ public class HistogramPanel extends JPanel {
         Graphics2D g2d = (Graphics2D) g;
 
         if (model.hasImage()) {
-            HistogramData data = ImageUtils.calculateHistogram(model.getCurrentImage());
-            drawHistogram(g2d, data);
+            HistogramData data = model.getHistogram();
+            if (data != null) {
+                drawHistogram(g2d, data);
+            }
         }
     }
 
     private void drawHistogram(Graphics2D g2d, HistogramData data) {
+        // 16-битные гистограммы выводятся по 256 столбцам
+        data = data.rebin(256);
         g2d.setColor(Color.WHITE);
         g2d.fillRect(0, 0, getWidth(), getHeight());
 
@@ -1,37 +1,272 @@
 package org.example.view;
 
 import org.example.model.ImageModel;
+
 import javax.swing.*;
 import java.awt.*;
-import java.awt.image.BufferedImage;
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.RenderedImage;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Изображение с масштабом и прокруткой. По умолчанию вписывается по ширине;
+ * Ctrl+колесо и Ctrl+плюс/минус меняют масштаб, перетаскивание мышью
+ * сдвигает, двойной щелчок и Ctrl+0 переключают между вписыванием и 100%.
+ * Вывод идёт через {@link ImagePyramid}, поэтому при любом масштабе
+ * рисуется только видимая часть ближайшего уровня.
+ */
+public class ImagePanel extends JPanel implements Scrollable {
+    // Пирамида изображений больше этого строится вне EDT
+    private static final long BACKGROUND_SCALE_PIXELS = 4_000_000L;
+    private static final double ZOOM_STEP = 1.25;
+    private static final double MIN_ZOOM = 1.0 / 64;
+    private static final double MAX_ZOOM = 32;
 
-public class ImagePanel extends JPanel {
     private ImageModel model;
 
+    // 0 - вписать по ширине, иначе экранных пикселей на пиксель изображения
+    private double zoom;
+    private ImagePyramid pyramid;
+    // Пирамида, которая сейчас строится в фоне
+    private SwingWorker<ImagePyramid, Void> building;
+    private RenderedImage buildingSource;
+    private Point dragStart;
+
     public ImagePanel(ImageModel model) {
         super();
         this.model = model;
+
+        MouseAdapter mouse = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                dragStart = e.getLocationOnScreen();
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                JViewport viewport = viewport();
+                if (dragStart == null || viewport == null) return;
+                Point position = viewport.getViewPosition();
+                Point current = e.getLocationOnScreen();
+                position.translate(dragStart.x - current.x, dragStart.y - current.y);
+                dragStart = current;
+                scrollTo(viewport, position);
+            }
+
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) {
+                    setZoom(zoom == 0 ? 1 : 0, e.getPoint());
+                }
+            }
+
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                if (!e.isControlDown()) {
+                    // Без Ctrl колесо прокручивает, как обычно
+                    getParent().dispatchEvent(SwingUtilities.convertMouseEvent(ImagePanel.this, e, getParent()));
+                    return;
+                }
+                setZoom(effectiveZoom() * Math.pow(ZOOM_STEP, -e.getPreciseWheelRotation()), e.getPoint());
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+        addMouseWheelListener(mouse);
+
+        int mask = Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx();
+        bindKey(KeyStroke.getKeyStroke(KeyEvent.VK_EQUALS, mask), "zoomIn",
+                () -> setZoom(effectiveZoom() * ZOOM_STEP, null));
+        bindKey(KeyStroke.getKeyStroke(KeyEvent.VK_ADD, mask), "zoomIn",
+                () -> setZoom(effectiveZoom() * ZOOM_STEP, null));
+        bindKey(KeyStroke.getKeyStroke(KeyEvent.VK_MINUS, mask), "zoomOut",
+                () -> setZoom(effectiveZoom() / ZOOM_STEP, null));
+        bindKey(KeyStroke.getKeyStroke(KeyEvent.VK_SUBTRACT, mask), "zoomOut",
+                () -> setZoom(effectiveZoom() / ZOOM_STEP, null));
+        bindKey(KeyStroke.getKeyStroke(KeyEvent.VK_0, mask), "zoomToggle",
+                () -> setZoom(zoom == 0 ? 1 : 0, null));
+    }
+
+    private void bindKey(KeyStroke key, String name, Runnable action) {
+        getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(key, name);
+        getActionMap().put(name, new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                action.run();
+            }
+        });
     }
 
     public void setModel(ImageModel model) {
         this.model = model;
+        if (pyramid != null) {
+            pyramid.close();
+            pyramid = null;
+        }
+        if (building != null) {
+            building.cancel(false);
+            building = null;
+            buildingSource = null;
+        }
     }
 
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
-        if (model != null && model.getCurrentImage() != null) {
-            BufferedImage img = model.getCurrentImage();
-            Image scaled = img.getScaledInstance(
-                    getWidth(), -1, Image.SCALE_SMOOTH);
-            g.drawImage(scaled, 0, 0, this);
-        } else {
+        ImageModel.Snapshot snapshot = model != null ? model.getSnapshot() : null;
+        RenderedImage source = snapshot != null ? snapshot.getFullImage() : null;
+        Dimension size = snapshot != null ? snapshot.getFullSize() : null;
+        if (source == null || size.width == 0 || getWidth() == 0) {
             g.setColor(Color.LIGHT_GRAY);
             g.fillRect(0, 0, getWidth(), getHeight());
+            return;
+        }
+
+        if (pyramid == null || pyramid.getSource() != source) {
+            if ((long) source.getWidth() * source.getHeight() <= BACKGROUND_SCALE_PIXELS) {
+                setPyramid(ImagePyramid.build(source, this::repaint));
+            } else if (buildingSource != source) {
+                buildInBackground(source);
+            }
         }
+        if (pyramid == null) return;
+
+        // Пока готовится новая пирамида, показывается прежняя в том же масштабе
+        double scale = effectiveZoom() * size.width / pyramid.getWidth();
+        Rectangle clip = g.getClipBounds() != null ? g.getClipBounds() : new Rectangle(getSize());
+        pyramid.paint((Graphics2D) g, scale, clip);
+    }
+
+    private void setPyramid(ImagePyramid next) {
+        if (pyramid != null) {
+            pyramid.close();
+        }
+        pyramid = next;
+    }
+
+    /** Большое изображение: уровни пирамиды строятся вне EDT, результат устаревшего запроса отбрасывается. */
+    private void buildInBackground(RenderedImage source) {
+        if (building != null) {
+            building.cancel(false);
+        }
+        buildingSource = source;
+        building = new SwingWorker<>() {
+            @Override
+            protected ImagePyramid doInBackground() {
+                return ImagePyramid.build(source, ImagePanel.this::repaint);
+            }
+
+            @Override
+            protected void done() {
+                if (building != this || isCancelled()) return;
+                building = null;
+                buildingSource = null;
+                try {
+                    setPyramid(get());
+                    repaint();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace();
+                }
+            }
+        };
+        building.execute();
+    }
+
+    private Dimension imageSize() {
+        return model != null ? model.getSnapshot().getFullSize() : new Dimension();
+    }
+
+    // Масштаб на экране; при вписывании - по ширине панели
+    private double effectiveZoom() {
+        Dimension size = imageSize();
+        if (zoom > 0 || size.width == 0) return zoom > 0 ? zoom : 1;
+        return (double) getWidth() / size.width;
+    }
+
+    /**
+     * @param zoom   новый масштаб; 0 - вписать по ширине
+     * @param anchor точка панели, которая остаётся на месте; null - центр видимой области
+     */
+    private void setZoom(double zoom, Point anchor) {
+        JViewport viewport = viewport();
+        double previous = effectiveZoom();
+        this.zoom = zoom == 0 ? 0 : Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom));
+        if (viewport == null) {
+            revalidate();
+            repaint();
+            return;
+        }
+
+        Rectangle visible = viewport.getViewRect();
+        if (anchor == null) {
+            anchor = new Point(visible.x + visible.width / 2, visible.y + visible.height / 2);
+        }
+        int offsetX = anchor.x - visible.x;
+        int offsetY = anchor.y - visible.y;
+        revalidate();
+        // Размер нужен сейчас, чтобы сдвинуть видимую область к той же точке
+        viewport.getParent().validate();
+        double ratio = effectiveZoom() / previous;
+        scrollTo(viewport, new Point((int) Math.round(anchor.x * ratio) - offsetX,
+                (int) Math.round(anchor.y * ratio) - offsetY));
+        repaint();
+    }
+
+    private void scrollTo(JViewport viewport, Point position) {
+        Dimension view = viewport.getViewSize();
+        Dimension extent = viewport.getExtentSize();
+        position.x = Math.max(0, Math.min(position.x, view.width - extent.width));
+        position.y = Math.max(0, Math.min(position.y, view.height - extent.height));
+        viewport.setViewPosition(position);
+    }
+
+    private JViewport viewport() {
+        return (JViewport) SwingUtilities.getAncestorOfClass(JViewport.class, this);
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        Dimension size = imageSize();
+        if (zoom == 0 || size.width == 0) {
+            return super.getPreferredSize();
+        }
+        return new Dimension((int) Math.round(size.width * zoom), (int) Math.round(size.height * zoom));
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        return getPreferredSize();
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return 32;
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return orientation == SwingConstants.HORIZONTAL ? visibleRect.width : visibleRect.height;
+    }
+
+    // При вписывании панель совпадает с видимой областью, как раньше
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        return zoom == 0;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        return zoom == 0;
     }
 
     public void updateView() {
+        revalidate();
         repaint();
     }
-}
\ No newline at end of file
+}
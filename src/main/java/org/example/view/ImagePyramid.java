@@ -0,0 +1,258 @@
+package org.example.view;
+
+import org.example.model.TiledImage;
+import org.example.utils.ImageUtils;
+import org.example.utils.PixelAccess;
+import org.example.utils.TileExecutor;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Пирамида уменьшенных копий для вывода с масштабом: каждый уровень вдвое
+ * меньше предыдущего, выводится ближайший уровень не мельче экрана.
+ * <p>
+ * Уровни не больше {@link #PRECOMPUTED_PIXELS} строятся сразу: первый из них -
+ * из источника, остальные - уменьшением вдвое параллельно по полосам.
+ * Более крупные уровни, включая сам источник, не хранятся целиком: их тайлы
+ * готовятся в фоне только для видимой области и держатся в LRU-кэше,
+ * а пока тайла нет, на его месте растягивается готовый уровень.
+ */
+final class ImagePyramid {
+    static final int TILE_SIZE = 256;
+    // Уровни до 4 Мп (16 МБ) хранятся целиком
+    private static final long PRECOMPUTED_PIXELS = 4_000_000L;
+    private static final int MIN_LEVEL_SIZE = 64;
+    // 256 тайлов по 256x256 - 64 МБ
+    private static final int CACHE_TILES = 256;
+
+    // Последние запрошенные тайлы готовятся первыми: при прокрутке это видимые
+    private static final ExecutorService LOADER = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingDeque<Runnable>() {
+                @Override
+                public boolean offer(Runnable task) {
+                    return offerFirst(task);
+                }
+            },
+            runnable -> {
+                Thread thread = new Thread(runnable, "pyramid");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private final RenderedImage source;
+    private final int width;
+    private final int height;
+    // null - уровень собирается из тайлов
+    private final BufferedImage[] levels;
+    // Первый уровень, построенный целиком
+    private final int precomputed;
+    private final Runnable onTileReady;
+    private final Map<Long, BufferedImage> cache = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, BufferedImage> eldest) {
+            return size() > CACHE_TILES;
+        }
+    };
+    private final Set<Long> loading = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    private ImagePyramid(RenderedImage source, BufferedImage[] levels, int precomputed, Runnable onTileReady) {
+        this.source = source;
+        this.width = source.getWidth();
+        this.height = source.getHeight();
+        this.levels = levels;
+        this.precomputed = precomputed;
+        this.onTileReady = onTileReady;
+    }
+
+    /**
+     * Строит готовые уровни; для больших изображений это проход по всему
+     * источнику, поэтому вызывать вне EDT.
+     *
+     * @param source      {@link BufferedImage} или {@link TiledImage}
+     * @param onTileReady вызывается из фонового потока, когда готов очередной тайл
+     */
+    static ImagePyramid build(RenderedImage source, Runnable onTileReady) {
+        int count = 1;
+        while (Math.max(levelSize(source.getWidth(), count - 1), levelSize(source.getHeight(), count - 1)) > MIN_LEVEL_SIZE) {
+            count++;
+        }
+        int precomputed = 0;
+        while (precomputed < count - 1 && (long) levelSize(source.getWidth(), precomputed)
+                * levelSize(source.getHeight(), precomputed) > PRECOMPUTED_PIXELS) {
+            precomputed++;
+        }
+
+        BufferedImage[] levels = new BufferedImage[count];
+        int levelWidth = levelSize(source.getWidth(), precomputed);
+        int levelHeight = levelSize(source.getHeight(), precomputed);
+        if (source instanceof TiledImage) {
+            levels[precomputed] = ((TiledImage) source).downscaled(levelWidth, levelHeight);
+        } else if (precomputed == 0) {
+            levels[0] = ImageUtils.toPackedRgb((BufferedImage) source);
+        } else {
+            levels[precomputed] = ImageUtils.downscale((BufferedImage) source, levelWidth, levelHeight);
+        }
+        for (int level = precomputed + 1; level < count; level++) {
+            levels[level] = halve(levels[level - 1]);
+        }
+        return new ImagePyramid(source, levels, precomputed, onTileReady);
+    }
+
+    RenderedImage getSource() {
+        return source;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    /** Освобождает кэш; тайлы, которые ещё готовятся, отбрасываются. */
+    void close() {
+        closed = true;
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Выводит изображение с началом в (0, 0).
+     *
+     * @param scale экранных пикселей на пиксель источника
+     */
+    void paint(Graphics2D g, double scale, Rectangle clip) {
+        int level = Math.max(0, Math.min(levels.length - 1, (int) Math.floor(-Math.log(scale) / Math.log(2))));
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, scale < 1
+                ? RenderingHints.VALUE_INTERPOLATION_BILINEAR
+                : RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        int screenWidth = (int) Math.round(width * scale);
+        int screenHeight = (int) Math.round(height * scale);
+        if (level >= precomputed) {
+            // Java2D масштабирует только то, что попадает в clip
+            g.drawImage(levels[level], 0, 0, screenWidth, screenHeight, null);
+            return;
+        }
+
+        int levelWidth = levelSize(width, level);
+        int levelHeight = levelSize(height, level);
+        double factor = scale * width / levelWidth;
+        int fromX = Math.max(0, (int) (clip.x / factor) / TILE_SIZE);
+        int fromY = Math.max(0, (int) (clip.y / factor) / TILE_SIZE);
+        int toX = Math.min((levelWidth - 1) / TILE_SIZE, (int) ((clip.x + clip.width) / factor) / TILE_SIZE);
+        int toY = Math.min((levelHeight - 1) / TILE_SIZE, (int) ((clip.y + clip.height) / factor) / TILE_SIZE);
+
+        for (int ty = fromY; ty <= toY; ty++) {
+            for (int tx = fromX; tx <= toX; tx++) {
+                int x0 = (int) Math.round(tx * TILE_SIZE * factor);
+                int y0 = (int) Math.round(ty * TILE_SIZE * factor);
+                int x1 = (int) Math.round(Math.min(levelWidth, (tx + 1) * TILE_SIZE) * factor);
+                int y1 = (int) Math.round(Math.min(levelHeight, (ty + 1) * TILE_SIZE) * factor);
+                BufferedImage tile = tile(level, tx, ty);
+                if (tile != null) {
+                    g.drawImage(tile, x0, y0, x1 - x0, y1 - y0, null);
+                    continue;
+                }
+                Graphics2D cell = (Graphics2D) g.create();
+                cell.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                cell.clipRect(x0, y0, x1 - x0, y1 - y0);
+                cell.drawImage(levels[precomputed], 0, 0, screenWidth, screenHeight, null);
+                cell.dispose();
+            }
+        }
+    }
+
+    // Тайл из кэша; если его нет - ставится в очередь и возвращается null
+    private BufferedImage tile(int level, int tx, int ty) {
+        long key = ((long) level << 48) | ((long) ty << 24) | tx;
+        synchronized (cache) {
+            BufferedImage tile = cache.get(key);
+            if (tile != null) return tile;
+        }
+        if (loading.add(key)) {
+            LOADER.execute(() -> {
+                try {
+                    if (closed) return;
+                    BufferedImage tile = render(level, tx, ty);
+                    synchronized (cache) {
+                        if (closed) return;
+                        cache.put(key, tile);
+                    }
+                    onTileReady.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                } finally {
+                    loading.remove(key);
+                }
+            });
+        }
+        return null;
+    }
+
+    private BufferedImage render(int level, int tx, int ty) {
+        int step = 1 << level;
+        int x0 = tx * TILE_SIZE * step;
+        int y0 = ty * TILE_SIZE * step;
+        int regionWidth = Math.min(width - x0, TILE_SIZE * step);
+        int regionHeight = Math.min(height - y0, TILE_SIZE * step);
+        boolean alpha = source.getColorModel().hasAlpha();
+        BufferedImage region = new BufferedImage(regionWidth, regionHeight,
+                alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        if (source instanceof BufferedImage) {
+            Graphics2D g = region.createGraphics();
+            g.drawImage(((BufferedImage) source).getSubimage(x0, y0, regionWidth, regionHeight), 0, 0, null);
+            g.dispose();
+        } else {
+            source.copyData(region.getRaster().createWritableTranslatedChild(x0, y0));
+        }
+        return ImageUtils.downscale(region, levelSize(regionWidth, level), levelSize(regionHeight, level));
+    }
+
+    private static int levelSize(int size, int level) {
+        return Math.max(1, (size + (1 << level) - 1) >> level);
+    }
+
+    // Уменьшение вдвое средним по квадрату 2x2; у нечётного края - по тому, что есть
+    private static BufferedImage halve(BufferedImage image) {
+        int sourceWidth = image.getWidth();
+        int sourceHeight = image.getHeight();
+        int width = levelSize(sourceWidth, 1);
+        int height = levelSize(sourceHeight, 1);
+        boolean alpha = image.getColorModel().hasAlpha();
+        BufferedImage result = new BufferedImage(width, height,
+                alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        PixelAccess source = PixelAccess.of(image);
+        PixelAccess target = PixelAccess.of(result);
+        TileExecutor.forEachBand(width, height, (fromY, toY) -> {
+            int[] top = new int[sourceWidth];
+            int[] bottom = new int[sourceWidth];
+            int[] row = new int[width];
+            for (int y = fromY; y < toY; y++) {
+                source.readRow(2 * y, top);
+                source.readRow(Math.min(2 * y + 1, sourceHeight - 1), bottom);
+                for (int x = 0; x < width; x++) {
+                    int left = 2 * x;
+                    int right = Math.min(left + 1, sourceWidth - 1);
+                    int pixel = 0;
+                    for (int shift = 0; shift < 32; shift += 8) {
+                        int sum = ((top[left] >>> shift) & 0xFF) + ((top[right] >>> shift) & 0xFF)
+                                + ((bottom[left] >>> shift) & 0xFF) + ((bottom[right] >>> shift) & 0xFF);
+                        pixel |= ((sum + 2) >> 2) << shift;
+                    }
+                    row[x] = pixel;
+                }
+                target.writeRow(y, row);
+            }
+        });
+        return result;
+    }
+}
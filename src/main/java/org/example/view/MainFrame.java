@@ -3,6 +3,14 @@ package org.example.view;
 import org.example.controller.AdjustmentsController;
 import org.example.controller.ImageController;
 import org.example.model.ImageModel;
+import org.example.model.TiledImage;
+import org.example.operations.OperationChain;
+import org.example.operations.PixelOperation;
+import org.example.operations.PixelOperations;
+import org.example.utils.ColorAdjustments;
+import org.example.utils.ImageLoader;
+import org.example.utils.ImageSaver;
+import org.example.utils.TileExecutor;
 
 import javax.imageio.ImageIO;
 import javax.swing.*;
@@ -11,11 +19,16 @@ import javax.swing.event.ChangeListener;
 import javax.swing.filechooser.FileFilter;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
 import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
 import java.io.File;
 import java.io.IOException;
-import java.util.function.Consumer;
-import java.util.function.IntConsumer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class MainFrame extends JFrame {
     private final ImageModel model;
@@ -30,9 +43,19 @@ public class MainFrame extends JFrame {
     private JButton resetButton;
     private JButton saveButton;
     private JButton openButton;
-    private JButton grayscaleButton;
-    private JButton linearCorrectionButton;
-    private JButton nonlinearCorrectionButton;
+    // Кнопки операций, найденных через PixelOperations
+    private final List<JButton> operationButtons = new ArrayList<>();
+    private JButton undoButton;
+    private JButton redoButton;
+    private JToggleButton proxyButton;
+    private JButton renderButton;
+    // Ползунки выставляются по модели, а не пользователем
+    private boolean syncingSliders;
+    private JProgressBar progressBar;
+    private JButton cancelButton;
+    private OpenWorker loading;
+    private SaveWorker saving;
+    private ProcessWorker processing;
 
 
     public MainFrame() {
@@ -72,26 +95,12 @@ public class MainFrame extends JFrame {
         openButton = new JButton("Open");
         openButton.addActionListener(e -> openImage());
 
-        grayscaleButton = new JButton("Grayscale");
-        grayscaleButton.setEnabled(false);
-        grayscaleButton.addActionListener(e -> {
-            imageController.convertToGrayscale();
-            updateViews();
-        });
-
-        linearCorrectionButton = new JButton("Linear Correction");
-        linearCorrectionButton.setEnabled(false);
-        linearCorrectionButton.addActionListener(e -> {
-            imageController.applyLinearCorrection();
-            updateViews();
-        });
-
-        nonlinearCorrectionButton = new JButton("Nonlinear Correction");
-        nonlinearCorrectionButton.setEnabled(false);
-        nonlinearCorrectionButton.addActionListener(e -> {
-            imageController.applyNonlinearCorrection();
-            updateViews();
-        });
+        for (PixelOperation operation : PixelOperations.all()) {
+            JButton button = new JButton(operation.getName());
+            button.setEnabled(false);
+            button.addActionListener(e -> applyOperation(operation));
+            operationButtons.add(button);
+        }
 
         resetButton = new JButton("Reset");
         resetButton.setEnabled(false);
@@ -105,12 +114,73 @@ public class MainFrame extends JFrame {
         saveButton.setEnabled(false);
         saveButton.addActionListener(e -> saveImage());
 
+        undoButton = new JButton("Undo");
+        undoButton.setEnabled(false);
+        undoButton.addActionListener(e -> undo());
+
+        redoButton = new JButton("Redo");
+        redoButton.setEnabled(false);
+        redoButton.addActionListener(e -> redo());
+
+        // Правка по уменьшенной копии; полный размер - по кнопке Render и при сохранении
+        proxyButton = new JToggleButton("Proxy");
+        proxyButton.setToolTipText("Edit a screen-size copy, render full size on demand and on save");
+        proxyButton.addActionListener(e -> {
+            model.setProxyMode(proxyButton.isSelected());
+            if (!proxyButton.isSelected() && model.getSnapshot().isRenderPending()) {
+                startProcessing(imageController.beginRender(), null);
+            }
+        });
+
+        renderButton = new JButton("Render");
+        renderButton.setEnabled(false);
+        renderButton.addActionListener(e -> startProcessing(imageController.beginRender(), null));
+
+        // Ctrl+Z / Ctrl+Y
+        JRootPane root = getRootPane();
+        int mask = Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx();
+        root.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW)
+                .put(KeyStroke.getKeyStroke(KeyEvent.VK_Z, mask), "undo");
+        root.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW)
+                .put(KeyStroke.getKeyStroke(KeyEvent.VK_Y, mask), "redo");
+        root.getActionMap().put("undo", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                undo();
+            }
+        });
+        root.getActionMap().put("redo", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                redo();
+            }
+        });
+
         toolBar.add(openButton);
         toolBar.add(resetButton);
         toolBar.add(saveButton);
-        toolBar.add(grayscaleButton);
-        toolBar.add(linearCorrectionButton);
-        toolBar.add(nonlinearCorrectionButton);
+        toolBar.add(undoButton);
+        toolBar.add(redoButton);
+        toolBar.add(proxyButton);
+        toolBar.add(renderButton);
+
+        progressBar = new JProgressBar(0, 100);
+        progressBar.setVisible(false);
+
+        cancelButton = new JButton("Cancel");
+        cancelButton.setVisible(false);
+        cancelButton.addActionListener(e -> {
+            if (loading != null) loading.cancel(true);
+            if (saving != null) saving.cancel(true);
+            if (processing != null) processing.cancel(true);
+        });
+
+        toolBar.add(Box.createHorizontalGlue());
+        toolBar.add(progressBar);
+        toolBar.add(cancelButton);
+        for (JButton button : operationButtons) {
+            toolBar.add(button);
+        }
 
         return toolBar;
     }
@@ -124,7 +194,7 @@ public class MainFrame extends JFrame {
         brightnessSlider.setPaintLabels(true);
         brightnessSlider.setMajorTickSpacing(50);
         brightnessSlider.addChangeListener(new SliderChangeListener(brightnessSlider,
-                value -> adjustmentsController.setBrightness(value)));
+                (value, adjusting) -> adjustmentsController.setBrightness(value, adjusting)));
 
         // Контраст
         contrastSlider = new JSlider(-100, 100, 0);
@@ -132,7 +202,7 @@ public class MainFrame extends JFrame {
         contrastSlider.setPaintLabels(true);
         contrastSlider.setMajorTickSpacing(50);
         contrastSlider.addChangeListener(new SliderChangeListener(contrastSlider,
-                value -> adjustmentsController.setContrast(value)));
+                (value, adjusting) -> adjustmentsController.setContrast(value, adjusting)));
 
         // Насыщенность
         saturationSlider = new JSlider(-100, 100, 0);
@@ -140,7 +210,7 @@ public class MainFrame extends JFrame {
         saturationSlider.setPaintLabels(true);
         saturationSlider.setMajorTickSpacing(50);
         saturationSlider.addChangeListener(new SliderChangeListener(saturationSlider,
-                value -> adjustmentsController.setSaturation(value)));
+                (value, adjusting) -> adjustmentsController.setSaturation(value, adjusting)));
 
         // Гамма
         gammaSlider = new JSlider(10, 300, 100);
@@ -148,7 +218,7 @@ public class MainFrame extends JFrame {
         gammaSlider.setPaintLabels(true);
         gammaSlider.setMajorTickSpacing(50);
         gammaSlider.addChangeListener(new SliderChangeListener(gammaSlider,
-                value -> adjustmentsController.setGamma(value / 100.0)));
+                (value, adjusting) -> adjustmentsController.setGamma(value / 100.0, adjusting)));
 
         // Добавление компонентов
         panel.add(new JLabel("Яркость:"));
@@ -163,25 +233,48 @@ public class MainFrame extends JFrame {
         return panel;
     }
 
+    private interface SliderHandler {
+        void accept(int value, boolean adjusting);
+    }
+
+    /**
+     * Пока ползунок двигается, запрашивает быстрый предпросмотр;
+     * после отпускания - полноразмерный результат.
+     */
     private class SliderChangeListener implements ChangeListener {
         private final JSlider slider;
-        private final Consumer<Integer> handler;
+        private final SliderHandler handler;
         private int lastValue;
+        private int lastPreviewValue;
+        private boolean previewShown;
 
-        public SliderChangeListener(JSlider slider, Consumer<Integer> handler) {
+        public SliderChangeListener(JSlider slider, SliderHandler handler) {
             this.slider = slider;
             this.handler = handler;
             this.lastValue = slider.getValue();
+            this.lastPreviewValue = lastValue;
         }
 
         @Override
         public void stateChanged(ChangeEvent e) {
-            if (!slider.getValueIsAdjusting()) {
-                int newValue = slider.getValue();
-                if (newValue != lastValue) {
-                    handler.accept(newValue);
-                    lastValue = newValue;
+            int newValue = slider.getValue();
+            if (syncingSliders) {
+                lastValue = newValue;
+                lastPreviewValue = newValue;
+                previewShown = false;
+                return;
+            }
+            if (slider.getValueIsAdjusting()) {
+                if (newValue != lastPreviewValue) {
+                    handler.accept(newValue, true);
+                    lastPreviewValue = newValue;
+                    previewShown = true;
                 }
+            } else if (newValue != lastValue || previewShown) {
+                handler.accept(newValue, false);
+                lastValue = newValue;
+                lastPreviewValue = newValue;
+                previewShown = false;
             }
         }
     }
@@ -193,19 +286,64 @@ public class MainFrame extends JFrame {
 
             boolean hasImage = model.hasImage();
             boolean isModified = model.isModified();
-            resetButton.setEnabled(hasImage && isModified);
-            saveButton.setEnabled(hasImage && isModified);
-            grayscaleButton.setEnabled(hasImage);
-            linearCorrectionButton.setEnabled(hasImage);
-            nonlinearCorrectionButton.setEnabled(hasImage);
+            // Тайлы, которые сейчас записываются, нельзя отдавать истории правок
+            boolean editable = hasImage && !(saving != null && model.isTiled());
+            // Во время операции правки, которые меняют граф, недоступны: иначе её результат устареет
+            boolean idle = editable && processing == null;
+            resetButton.setEnabled(idle && isModified);
+            saveButton.setEnabled(hasImage && isModified && saving == null && processing == null);
+            renderButton.setEnabled(editable && processing == null && model.getSnapshot().isRenderPending());
+            for (JButton button : operationButtons) {
+                button.setEnabled(editable && processing == null);
+            }
+            undoButton.setEnabled(idle && model.canUndo());
+            redoButton.setEnabled(idle && model.canRedo());
+            brightnessSlider.setEnabled(idle);
+            contrastSlider.setEnabled(idle);
+            saturationSlider.setEnabled(idle);
+            gammaSlider.setEnabled(idle);
         });
     }
 
+    private void undo() {
+        if (!model.canUndo() || processing != null || (saving != null && model.isTiled())) return;
+        adjustmentsController.cancelPending();
+        model.undo();
+        syncSliders();
+    }
+
+    private void redo() {
+        if (!model.canRedo() || processing != null || (saving != null && model.isTiled())) return;
+        adjustmentsController.cancelPending();
+        model.redo();
+        syncSliders();
+    }
+
+    /** Ставит ползунки в положение коррекции из восстановленного состояния. */
+    private void syncSliders() {
+        adjustmentsController.syncWithModel();
+        ColorAdjustments adjustments = model.getGraph().getAdjustments();
+        syncingSliders = true;
+        try {
+            brightnessSlider.setValue(Math.round(adjustments.getBrightness() * 100));
+            contrastSlider.setValue(Math.round((adjustments.getContrast() - 1) * 100));
+            saturationSlider.setValue(Math.round((adjustments.getSaturation() - 1) * 100));
+            gammaSlider.setValue((int) Math.round(adjustments.getGamma() * 100));
+        } finally {
+            syncingSliders = false;
+        }
+    }
+
     private void resetSlidersToDefault() {
-        brightnessSlider.setValue(0);
-        contrastSlider.setValue(0);
-        saturationSlider.setValue(0);
-        gammaSlider.setValue(100);
+        syncingSliders = true;
+        try {
+            brightnessSlider.setValue(0);
+            contrastSlider.setValue(0);
+            saturationSlider.setValue(0);
+            gammaSlider.setValue(100);
+        } finally {
+            syncingSliders = false;
+        }
     }
 
     private void saveImage() {
@@ -238,27 +376,45 @@ public class MainFrame extends JFrame {
                 fileToSave = new File(fileName + "." + format);
             }
 
-            try {
-                boolean success = ImageIO.write(
-                        model.getCurrentImage(),
-                        format,
-                        fileToSave);
-
-                if (!success) {
-                    JOptionPane.showMessageDialog(this,
-                            "The image could not be saved\nUnsupported format: " + format,
-                            "Error",
-                            JOptionPane.ERROR_MESSAGE);
-                }
-            } catch (IOException ex) {
-                JOptionPane.showMessageDialog(this,
-                        "Error saving image: " + ex.getMessage(),
-                        "Error",
-                        JOptionPane.ERROR_MESSAGE);
+            ImageSaver.Options options = askSaveOptions(format);
+            if (options == null) return;
+
+            File target = fileToSave;
+            if (model.getSnapshot().isRenderPending()) {
+                // Правки по копии сначала применяются к полному изображению
+                startProcessing(imageController.beginRender(), () -> startSave(target, format, options));
+            } else {
+                startSave(target, format, options);
             }
         }
     }
 
+    private void startSave(File file, String format, ImageSaver.Options options) {
+        if (saving != null) {
+            saving.cancel(true);
+        }
+        saving = new SaveWorker(model.getImageForSave(), file, format, options);
+        showProgress(saving);
+        saving.execute();
+        updateViews();
+    }
+
+    private void applyOperation(PixelOperation operation) {
+        if (processing != null) return;
+        OperationChain.Step step = imageController.askStep(operation);
+        if (step == null) return;
+        startProcessing(imageController.begin(step), null);
+    }
+
+    /** @param then что сделать после того, как результат передан модели; может быть null */
+    private void startProcessing(ImageController.PendingEdit edit, Runnable then) {
+        if (processing != null) return;
+        processing = new ProcessWorker(edit, then);
+        showProgress(processing);
+        processing.execute();
+        updateViews();
+    }
+
     private void openImage() {
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setDialogTitle("Select Image");
@@ -271,24 +427,266 @@ public class MainFrame extends JFrame {
         int returnValue = fileChooser.showOpenDialog(this);
 
         if (returnValue == JFileChooser.APPROVE_OPTION) {
-            File selectedFile = fileChooser.getSelectedFile();
+            if (loading != null) {
+                loading.cancel(true);
+            }
+            if (processing != null) {
+                processing.cancel(true);
+            }
+            loading = new OpenWorker(fileChooser.getSelectedFile());
+            showProgress(loading);
+            loading.execute();
+        }
+    }
+
+    /** Настройки кодировщика для формата; null - пользователь отменил сохранение. */
+    private ImageSaver.Options askSaveOptions(String format) {
+        ImageSaver.Options defaults = ImageSaver.Options.DEFAULT;
+        JPanel panel = new JPanel(new GridLayout(0, 2));
+        JSlider quality = new JSlider(0, 100, Math.round(defaults.getJpegQuality() * 100));
+        JCheckBox progressive = new JCheckBox("Progressive", defaults.isProgressive());
+        JSlider compression = new JSlider(0, 9, defaults.getPngCompression());
+
+        switch (format) {
+            case "jpg":
+                quality.setMajorTickSpacing(25);
+                quality.setPaintLabels(true);
+                panel.add(new JLabel("Качество:"));
+                panel.add(quality);
+                panel.add(new JLabel());
+                panel.add(progressive);
+                break;
+            case "png":
+                compression.setMajorTickSpacing(3);
+                compression.setPaintLabels(true);
+                panel.add(new JLabel("Сжатие:"));
+                panel.add(compression);
+                break;
+            default:
+                return defaults;
+        }
+
+        int result = JOptionPane.showConfirmDialog(this, panel, "Save Options",
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        if (result != JOptionPane.OK_OPTION) return null;
+        return new ImageSaver.Options(quality.getValue() / 100f, progressive.isSelected(), compression.getValue());
+    }
+
+    private void showProgress(SwingWorker<?, ?> worker) {
+        worker.addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName())) {
+                progressBar.setValue((Integer) e.getNewValue());
+            }
+        });
+        progressBar.setValue(0);
+        progressBar.setVisible(true);
+        cancelButton.setVisible(true);
+    }
+
+    private void hideProgress() {
+        if (loading == null && saving == null && processing == null) {
+            progressBar.setVisible(false);
+            cancelButton.setVisible(false);
+        }
+    }
+
+    /** Запись в фоне; файл появляется на месте только целиком. */
+    private class SaveWorker extends SwingWorker<Void, Void> {
+        private final RenderedImage image;
+        private final File file;
+        private final String format;
+        private final ImageSaver.Options options;
+
+        SaveWorker(RenderedImage image, File file, String format, ImageSaver.Options options) {
+            this.image = image;
+            this.file = file;
+            this.format = format;
+            this.options = options;
+        }
+
+        @Override
+        protected Void doInBackground() throws IOException {
+            ImageSaver.save(image, file, format, options, done -> setProgress((int) (done * 100)));
+            return null;
+        }
+
+        @Override
+        protected void done() {
+            if (saving == this) {
+                saving = null;
+                hideProgress();
+                updateViews();
+            }
+            if (isCancelled()) return;
+
             try {
-                BufferedImage image = ImageIO.read(selectedFile);
-                if (image == null) {
-                    throw new IOException("Unsupported image format");
+                get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                JOptionPane.showMessageDialog(MainFrame.this,
+                        "Error saving image: " + e.getCause().getMessage(),
+                        "Error",
+                        JOptionPane.ERROR_MESSAGE);
+            }
+        }
+    }
+
+    /**
+     * Операция панели инструментов в фоне. Ход считается по обработанным
+     * полосам и тайлам; результат передаётся модели в EDT целиком.
+     */
+    private class ProcessWorker extends SwingWorker<Void, Void> implements TileExecutor.Progress {
+        private final ImageController.PendingEdit edit;
+        private final Runnable then;
+        private final long total;
+        private final AtomicLong done = new AtomicLong();
+
+        ProcessWorker(ImageController.PendingEdit edit, Runnable then) {
+            this.edit = edit;
+            this.then = then;
+            this.total = Math.max(1, edit.getExpectedPixels());
+        }
+
+        @Override
+        public void advance(long pixels) {
+            setProgress((int) Math.min(99, done.addAndGet(pixels) * 100 / total));
+        }
+
+        @Override
+        protected Void doInBackground() {
+            try {
+                edit.run(this);
+            } finally {
+                // done() при отмене вызывается, не дожидаясь расчёта
+                if (isCancelled()) edit.discard();
+            }
+            return null;
+        }
+
+        @Override
+        protected void done() {
+            if (processing == this) {
+                processing = null;
+                hideProgress();
+            }
+            if (isCancelled()) {
+                edit.discard();
+                updateViews();
+                return;
+            }
+
+            try {
+                get();
+                if (edit.publish()) {
+                    if (then != null) then.run();
+                } else {
+                    // Модель изменилась во время расчёта (например, дошёл результат
+                    // ползунков): считаем правку заново поверх нового состояния
+                    ImageController.PendingEdit rebased = edit.rebase();
+                    if (rebased != null) {
+                        startProcessing(rebased, then);
+                        return;
+                    }
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                edit.discard();
+                System.err.println("Error in " + edit.getName() + ": " + e.getCause());
+                e.getCause().printStackTrace();
+                JOptionPane.showMessageDialog(MainFrame.this,
+                        "Error in " + edit.getName() + ": " + e.getCause().getMessage(),
+                        "Error",
+                        JOptionPane.ERROR_MESSAGE);
+            }
+            updateViews();
+        }
+    }
+
+    /**
+     * Открытие в фоне: сначала уменьшенная под экран копия (показывается
+     * по мере декодирования), затем полноразмерное изображение.
+     */
+    private class OpenWorker extends SwingWorker<Void, BufferedImage> {
+        private final File file;
+        private final Rectangle screen = getGraphicsConfiguration().getBounds();
+        private BufferedImage image;
+        private TiledImage tiles;
+        // Экранная копия тайлов и копия для правок: считаются здесь же, не в потоке событий
+        private BufferedImage tilesPreview;
+        private BufferedImage working;
+
+        OpenWorker(File file) {
+            this.file = file;
+        }
+
+        @Override
+        protected Void doInBackground() throws IOException {
+            Dimension size = ImageLoader.readSize(file);
+            BufferedImage preview = ImageLoader.readPreview(file, screen.width, screen.height, this::publish);
+            publish(preview);
+
+            if (preview.getWidth() == size.width && preview.getHeight() == size.height) {
+                // Файл поместился в экран: это уже полное изображение
+                image = preview;
+            } else if (TiledImage.shouldTile(size.width, size.height)) {
+                // Не помещается в кучу целиком: открываем тайлами
+                tiles = TiledImage.read(file, done -> setProgress((int) (done * 100)));
+                tilesPreview = tiles.downscaled(ImageModel.TILED_PREVIEW_SIZE, ImageModel.TILED_PREVIEW_SIZE);
+            } else {
+                image = ImageLoader.read(file, done -> setProgress((int) (done * 100)));
+            }
+            working = ImageModel.copyImage(tiles != null ? tilesPreview : image);
+            return null;
+        }
+
+        @Override
+        protected void process(List<BufferedImage> previews) {
+            if (!isCancelled()) {
+                model.setLoadingPreview(previews.get(previews.size() - 1));
+            }
+        }
+
+        @Override
+        protected void done() {
+            if (loading == this) {
+                loading = null;
+                hideProgress();
+            }
+            if (isCancelled()) {
+                if (tiles != null) tiles.close();
+                return;
+            }
 
-                model.setOriginalImage(image);
-                adjustmentsController.resetAllAdjustments();
+            try {
+                get();
+                if (tiles != null) {
+                    model.setOriginalImage(tiles, tilesPreview, working);
+                } else {
+                    model.setOriginalImage(image, working);
+                }
+                // Модель уже без правок: только забываем значения ползунков
+                adjustmentsController.cancelPending();
+                adjustmentsController.syncWithModel();
                 resetSlidersToDefault();
                 updateViews();
-
-            } catch (IOException ex) {
-                JOptionPane.showMessageDialog(this,
-                        "Error loading image: " + ex.getMessage(),
+                if (tiles != null && tiles.isDepthReduced()) {
+                    JOptionPane.showMessageDialog(MainFrame.this,
+                            "The image is too large to keep its full bit depth"
+                                    + " and was opened with 8 bits per channel.",
+                            "Warning",
+                            JOptionPane.WARNING_MESSAGE);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                model.setLoadingPreview(null);
+                JOptionPane.showMessageDialog(MainFrame.this,
+                        "Error loading image: " + e.getCause().getMessage(),
                         "Error",
                         JOptionPane.ERROR_MESSAGE);
             }
         }
     }
-}
\ No newline at end of file
+}
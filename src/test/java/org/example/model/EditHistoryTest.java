@@ -0,0 +1,89 @@
+package org.example.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EditHistoryTest {
+    @Test
+    void checkpointSpillsAsDeltaAndRestoresExactly() {
+        // Всё, кроме исходного и текущего состояний, вытесняется сразу
+        EditHistory history = new EditHistory(1);
+        BufferedImage original = randomImage(new Random(3), 700, 530);
+        history.reset(original, null);
+
+        List<BufferedImage> states = new ArrayList<>();
+        List<AtomicInteger> recomputed = new ArrayList<>();
+        states.add(original);
+        recomputed.add(new AtomicInteger());
+        for (int i = 1; i <= 5; i++) {
+            // Каждое состояние отличается от предыдущего одним пикселем, то есть одним тайлом
+            BufferedImage image = copy(states.get(i - 1));
+            image.setRGB(10 + 100 * i, 400, 0xff000000 | i * 0x10203);
+            AtomicInteger counter = new AtomicInteger();
+            states.add(image);
+            recomputed.add(counter);
+            history.push("Step " + i, () -> {
+                counter.incrementAndGet();
+                return copy(image);
+            }, new OperationGraph(), image, null, null);
+        }
+
+        for (int i = 4; i >= 0; i--) {
+            EditHistory.State state = history.undo();
+            assertArrayEquals(pixels(states.get(i)), pixels(state.getImage()), "state " + i);
+        }
+        // Контрольная точка 4 прочитана с диска: совпавшие тайлы взяты из состояния 3,
+        // которое для этого пересчитано; её собственный пересчёт не нужен
+        assertEquals(0, recomputed.get(4).get());
+        assertTrue(recomputed.get(3).get() >= 2);
+    }
+
+    @Test
+    void originalTilesDoNotCountAgainstDiskBudget() {
+        BufferedImage image = randomImage(new Random(4), 64, 64);
+        try (TiledImage tiles = TiledImage.fromImage(image)) {
+            tiles.flush();
+            assertTrue(tiles.getSpilledBytes() > 1000);
+
+            EditHistory history = new EditHistory(Long.MAX_VALUE, 1000);
+            history.reset(image, tiles);
+            for (int i = 1; i <= 3; i++) {
+                BufferedImage state = copy(image);
+                history.push("Step " + i, () -> copy(state), new OperationGraph(), state, null, null);
+            }
+            for (int i = 0; i < 3; i++) {
+                assertTrue(history.canUndo(), "undo " + i);
+                history.undo();
+            }
+        }
+    }
+
+    private static BufferedImage randomImage(Random random, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return image;
+    }
+
+    private static BufferedImage copy(BufferedImage image) {
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), image.getType());
+        copy.setData(image.getRaster());
+        return copy;
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+}
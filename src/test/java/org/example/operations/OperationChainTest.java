@@ -0,0 +1,59 @@
+package org.example.operations;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class OperationChainTest {
+    @Test
+    void fusedTablesMatchStepByStep() {
+        BufferedImage image = randomImage(new Random(1), 301, 217);
+        assertFusedMatches(image, "gamma", 1.7, "linear", 0, "gamma", 0.6);
+        assertFusedMatches(image, "linear", 0, "autolevels", 2, "equalize", 0);
+        assertFusedMatches(image, "gamma", 2.2, "autolevels", 0.5, "grayscale", 0, "gamma", 0.8);
+    }
+
+    @Test
+    void neighborhoodStageSplitsFusion() {
+        BufferedImage image = randomImage(new Random(2), 180, 260);
+        assertFusedMatches(image, "gamma", 1.4, "autolevels", 1, "clahe", 2, "linear", 0, "gamma", 0.9);
+    }
+
+    // Пары id, значение параметра
+    private static void assertFusedMatches(BufferedImage image, Object... operations) {
+        List<OperationChain.Step> steps = new ArrayList<>();
+        for (int i = 0; i < operations.length; i += 2) {
+            PixelOperation operation = PixelOperations.find((String) operations[i]);
+            steps.add(new OperationChain.Step(operation, ((Number) operations[i + 1]).doubleValue()));
+        }
+        BufferedImage fused = new OperationChain(steps).apply(image);
+        BufferedImage unfused = image;
+        for (OperationChain.Step step : steps) {
+            unfused = new OperationChain(List.of(step)).apply(unfused);
+        }
+        assertArrayEquals(pixels(unfused), pixels(fused));
+    }
+
+    private static BufferedImage randomImage(Random random, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // Узкий диапазон, чтобы растяжение и выравнивание что-то меняли
+                int r = 40 + random.nextInt(120);
+                int g = 60 + random.nextInt(90);
+                int b = random.nextInt(256);
+                image.setRGB(x, y, r << 16 | g << 8 | b);
+            }
+        }
+        return image;
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+}
@@ -0,0 +1,53 @@
+package org.example.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class VectorKernelsTest {
+    private static final int LENGTH = 10_007;
+
+    @Test
+    void adjustMatchesScalar() {
+        assumeTrue(PixelKernels.isVectorAvailable());
+        Random random = new Random(42);
+        byte[][] source = randomPlanes(random);
+        for (float saturation : new float[]{0f, 0.35f, 1f, 1.8f}) {
+            // Таблица без ограничения диапазона, как у коррекции ползунками
+            int[] table = new int[256];
+            for (int i = 0; i < table.length; i++) {
+                table[i] = random.nextInt(500) - 120;
+            }
+            byte[][] scalar = new byte[3][LENGTH];
+            byte[][] vector = new byte[3][LENGTH];
+            // Участок с невыровненными границами проверяет хвосты векторного цикла
+            PixelKernels.scalarAdjust(source, scalar, 3, LENGTH - 5, table, saturation);
+            new VectorKernels().adjust(source, vector, 3, LENGTH - 5, table, saturation);
+            for (int c = 0; c < 3; c++) {
+                assertArrayEquals(scalar[c], vector[c], "channel " + c + ", saturation " + saturation);
+            }
+        }
+    }
+
+    @Test
+    void grayMatchesScalar() {
+        assumeTrue(PixelKernels.isVectorAvailable());
+        byte[][] source = randomPlanes(new Random(7));
+        byte[] scalar = new byte[LENGTH];
+        byte[] vector = new byte[LENGTH];
+        PixelKernels.scalarGray(source, 1, LENGTH - 2, scalar);
+        new VectorKernels().gray(source, 1, LENGTH - 2, vector);
+        assertArrayEquals(scalar, vector);
+    }
+
+    private static byte[][] randomPlanes(Random random) {
+        byte[][] planes = new byte[3][LENGTH];
+        for (byte[] plane : planes) {
+            random.nextBytes(plane);
+        }
+        return planes;
+    }
+}